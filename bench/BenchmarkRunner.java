@@ -0,0 +1,94 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+public class BenchmarkRunner {
+    public interface Benchmark {
+        // One invocation of the code under test, the result is consumed so the JIT cannot drop the work.
+        Object invoke() throws Exception;
+    }
+
+    private static class Result {
+        final String name;
+        final String param;
+        final double nanosPerOp;
+        final double errorNanos;
+        final long operations;
+
+        Result(String name, String param, double nanosPerOp, double errorNanos, long operations) {
+            this.name = name;
+            this.param = param;
+            this.nanosPerOp = nanosPerOp;
+            this.errorNanos = errorNanos;
+            this.operations = operations;
+        }
+    }
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationNanos;
+    private final Pattern filter;
+    private final ArrayList<Result> results = new ArrayList<>();
+    // Every result is folded in here so the work behind it stays observable.
+    private int sink;
+
+    public BenchmarkRunner(int warmupIterations, int measurementIterations, long iterationMillis, String filter) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationNanos = iterationMillis * 1_000_000L;
+        this.filter = filter == null ? null : Pattern.compile(filter);
+    }
+
+    public void run(String name, String param, Benchmark benchmark) throws Exception {
+        if (this.filter != null && !this.filter.matcher(name).find()) return;
+
+        for (int i = 0; i < this.warmupIterations; i++) iteration(benchmark);
+        double[] samples = new double[this.measurementIterations];
+        long operations = 0;
+        for (int i = 0; i < this.measurementIterations; i++) {
+            long[] measured = iteration(benchmark);
+            samples[i] = (double) measured[0] / measured[1];
+            operations += measured[1];
+        }
+
+        double mean = 0;
+        for (double sample : samples) mean += sample;
+        mean /= samples.length;
+        double variance = 0;
+        for (double sample : samples) variance += (sample - mean) * (sample - mean);
+        double error = samples.length > 1 ? Math.sqrt(variance / (samples.length - 1)) : 0;
+
+        Result result = new Result(name, param, mean, error, operations);
+        this.results.add(result);
+        System.out.println(String.format(Locale.ROOT, "%-40s %-12s %16.1f ns/op  +- %12.1f  (%d ops)",
+                name, param, mean, error, operations));
+    }
+
+    private long[] iteration(Benchmark benchmark) throws Exception {
+        // Keep calling the benchmark until the iteration time is used up.
+        long operations = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            Object value = benchmark.invoke();
+            this.sink += value == null ? 0 : value.hashCode();
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < this.iterationNanos);
+        return new long[] {elapsed, operations};
+    }
+
+    public void writeCsv(String path) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(path))) {
+            writer.println("benchmark,param,ns_per_op,error_ns,operations");
+            for (Result result : this.results) {
+                writer.println(String.format(Locale.ROOT, "%s,%s,%.3f,%.3f,%d",
+                        result.name, result.param, result.nanosPerOp, result.errorNanos, result.operations));
+            }
+        }
+        if (this.sink == 42) System.out.println();
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Random;
+import javax.swing.SwingUtilities;
+
+public class ClientBenchmarks {
+    // Same limit the server uses for recv(), so frames arrive split the way they do on the wire.
+    private static final int CHUNK = 1024;
+
+    public static void main(String[] args) throws Exception {
+        // The GUI benchmarks only need the Swing components, never a display.
+        System.setProperty("java.awt.headless", "true");
+
+        int warmup = 3;
+        int iterations = 5;
+        long millis = 1000;
+        String filter = null;
+        String csv = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--iterations": iterations = Integer.parseInt(args[++i]); break;
+                case "--millis": millis = Long.parseLong(args[++i]); break;
+                case "--filter": filter = args[++i]; break;
+                case "--csv": csv = args[++i]; break;
+                default:
+                    System.err.println("Usage: ClientBenchmarks [--warmup n] [--iterations n] [--millis ms] [--filter regex] [--csv file]");
+                    System.exit(2);
+            }
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner(warmup, iterations, millis, filter);
+        framing(runner);
+        parseGroups(runner);
+        protocolParsing(runner);
+        eventRing(runner);
+        messageSearch(runner);
+        guiMessageHandling(runner);
+        guiAppend(runner);
+        messageStore(runner);
+        if (csv != null) runner.writeCsv(csv);
+    }
+
+    static void framing(BenchmarkRunner runner) throws Exception {
+        // About 1 MB of frames per invocation, read through the real readMessage() loop.
+        for (int frameSize : new int[] {64, 1024, 64 * 1024}) {
+            int frames = Math.max(1, (1 << 20) / frameSize);
+            byte[] stream = cannedFrames(frames, frameSize);
+            runner.run("SocketClient.readMessage", frameSize + "B", () -> {
+                SocketClient client = new SocketClient(new ChunkedInputStream(stream, CHUNK), OutputStream.nullOutputStream());
+                int total = 0;
+                for (int i = 0; i < frames; i++) total += client.readMessage().length();
+                return total;
+            });
+        }
+    }
+
+    static void eventRing(BenchmarkRunner runner) throws Exception {
+        // What the reader and the event consumer pay per announcement, draining one at a time or in full batches.
+        ProtocolEvent event = new ProtocolEvent.MemberJoined("alice has joined group0!", "alice", "group0");
+        for (int batch : new int[] {1, 256}) {
+            EventRing<ProtocolEvent> ring = new EventRing<>(4096);
+            ArrayList<ProtocolEvent> drained = new ArrayList<>(batch);
+            runner.run("EventRing.offer+drain", Integer.toString(batch), () -> {
+                int total = 0;
+                for (int i = 0; i < 65536 / batch; i++) {
+                    for (int j = 0; j < batch; j++) ring.offer(event);
+                    drained.clear();
+                    total += ring.drain(drained, batch);
+                }
+                return total;
+            });
+        }
+    }
+
+    static void messageSearch(BenchmarkRunner runner) throws Exception {
+        // 200k messages over 20 groups, words drawn so a few are everywhere and most are rare.
+        MessageIndex index = new MessageIndex();
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            StringBuilder body = new StringBuilder("From: user").append(random.nextInt(500)).append("\nSubject:");
+            for (int j = 0; j < 12; j++) body.append(" word").append((int) Math.pow(5000, random.nextDouble()));
+            index.add("group" + i % 20, i / 20, body.toString());
+        }
+        index.flush();
+        String[] queries = {"word4321", "word1", "word1 word17", "word43*", "user12 word2"};
+        for (String query : queries) {
+            runner.run("MessageIndex.search", query, () -> index.search(query, 50).size());
+        }
+    }
+
+    static void parseGroups(BenchmarkRunner runner) throws Exception {
+        for (int groups : new int[] {10, 1000, 100_000}) {
+            String response = groupsResponse(groups);
+            runner.run("GroupDirectory.parse", Integer.toString(groups), () -> GroupDirectory.parse(response).size());
+        }
+    }
+
+    static void protocolParsing(BenchmarkRunner runner) throws Exception {
+        String[] frames = {
+                "Group: group0\nUsers: [alice, bob, carol]\nMessages: 42\nCutoff: 40\n",
+                "Message ID: 42\nGroup : <helpers.Group object>\nFrom: alice\nTime: 2024-01-01 12:00:00\nSubject: hi\nGroup: group0\n",
+                "bob has joined group0!",
+                "bob has left the group0 group!\n",
+                "Just an ordinary message body",
+        };
+        for (String frame : frames) {
+            String name = ProtocolParser.parse(frame).getClass().getSimpleName();
+            runner.run("ProtocolParser.parse", name, () -> ProtocolParser.parse(frame));
+        }
+    }
+
+    static void guiMessageHandling(BenchmarkRunner runner) throws Exception {
+        // What a fetched message body costs the GUI in a group that already holds `history` messages: parsing the
+        // reply, the store, the sync state and the search index, for a batch of 256 like a history sync delivers, then
+        // the one repaint they collapse into.
+        for (int history : new int[] {10, 1000, 10_000, 100_000}) {
+            Gui gui = headlessGui(history);
+            int[] nextId = {history};
+            runner.run("Gui.appendMessage", Integer.toString(history), () -> {
+                for (int i = 0; i < 256; i++) {
+                    int id = nextId[0]++;
+                    gui.appendMessage("group0", id, "Message " + id + " Body, about as long as a line of chat usually is");
+                }
+                SwingUtilities.invokeAndWait(() -> { });
+                return gui;
+            });
+        }
+    }
+
+    static void guiAppend(BenchmarkRunner runner) throws Exception {
+        // One new message pushed into a group's list model and flushed through the EDT.
+        for (int history : new int[] {10, 1000, 10_000, 100_000}) {
+            Gui gui = headlessGui(history);
+            MessageListModel messages = gui.view("group0").getMessages();
+            int[] nextId = {history};
+            runner.run("GroupView.appendMessage", Integer.toString(history), () -> {
+                gui.view("group0").appendMessage(nextId[0]++, "Another message");
+                SwingUtilities.invokeAndWait(() -> { });
+                return messages.getSize();
+            });
+        }
+    }
+
+    static void messageStore(BenchmarkRunner runner) throws Exception {
+        // 1024 messages appended to a store that is already at its scrollback limit, so each one evicts an older one.
+        for (int limit : new int[] {10_000, 100_000}) {
+            MessageStore store = new MessageStore(limit, Long.MAX_VALUE);
+            String body = "Another message of a typical length, about as long as a line of chat usually is.";
+            int[] nextId = {0};
+            while (nextId[0] < limit) store.append(nextId[0]++, body);
+            runner.run("MessageStore.append", Integer.toString(limit), () -> {
+                for (int i = 0; i < 1024; i++) store.append(nextId[0]++, body);
+                return store.size();
+            });
+        }
+    }
+
+    static Gui headlessGui(int history) throws Exception {
+        Gui gui = new Gui(1280, 720);
+        SocketClient client = nullClient();
+        gui.setGroups(GroupDirectory.parse(groupsResponse(6)), client);
+        gui.openGroup("group0");
+        gui.handleServerMessage("Group: group0\nUsers: [alice, bob]\nMessages: 0\nCutoff: 0\n");
+        MessageListModel messages = gui.view("group0").getMessages();
+        for (int i = 0; i < history; i++) messages.append(i, "Message " + i + " Body");
+        SwingUtilities.invokeAndWait(() -> { });
+        return gui;
+    }
+
+    static SocketClient nullClient() {
+        return new SocketClient(new ByteArrayInputStream(new byte[0]), OutputStream.nullOutputStream());
+    }
+
+    static String groupsResponse(int groups) {
+        StringBuilder response = new StringBuilder();
+        for (int i = 0; i < groups; i++) {
+            if (i > 0) response.append('\n');
+            response.append("Group name: group").append(i).append(", Group ID: ").append(i);
+        }
+        return response.toString();
+    }
+
+    static byte[] cannedFrames(int frames, int frameSize) {
+        StringBuilder body = new StringBuilder(frameSize);
+        while (body.length() < frameSize) body.append("Message body with some text ");
+        body.setLength(frameSize);
+        StringBuilder stream = new StringBuilder(frames * (frameSize + 5));
+        for (int i = 0; i < frames; i++) stream.append(body).append("<END>");
+        return stream.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static class ChunkedInputStream extends ByteArrayInputStream {
+        private final int chunk;
+
+        ChunkedInputStream(byte[] data, int chunk) {
+            super(data);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, this.chunk));
+        }
+
+        @Override
+        public synchronized int available() {
+            // Report nothing buffered so BufferedInputStream hands back one chunk per read, like a socket would.
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,5 @@
+# Java compile the client together with the benchmarks and run them headless.
+# Example: bash run_bench.sh --filter readMessage --csv bench.csv
+mkdir -p "./build";
+javac -d "./build" ./src/*.java ./bench/*.java;
+java -Djava.awt.headless=true -cp "./build" ClientBenchmarks "$@";
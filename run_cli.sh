@@ -1,2 +1,5 @@
-# Java compile the code for the GUI
-java "./src/SocketClient.java"
+# Java compile the client and start the CLI. Without arguments it is interactive, with --batch it runs a script.
+# Example: bash run_cli.sh --batch --host localhost --port 9998 --user seeder --script seed.txt --concurrency 64
+mkdir -p "./build";
+javac -d "./build" ./src/*.java;
+java -cp "./build" SocketClient "$@";
@@ -1,3 +1,4 @@
-# Java compile the code for the GUI.
-javac "./src/App.java" "./src/SocketClient.java" "./src/Gui.java";
-(cd "src" && java "App" && cd "..");
+# Java compile the client and start the GUI.
+mkdir -p "./build";
+javac -d "./build" ./src/*.java;
+java -cp "./build" App;
@@ -0,0 +1,4 @@
+# Java compile and start the Java group server (same protocol as the python one).
+mkdir -p "./build";
+javac -d "./build" ./src/*.java;
+java -cp "./build" GroupServer "$@";
@@ -0,0 +1,5 @@
+# Java compile the client and run the headless load generator against a running server.
+# Example: bash run_load.sh --users 50 --duration 30 --rate 10 --mix join=1,post=2,message=4,info=2,leave=1 --out report.json
+mkdir -p "./build";
+javac -d "./build" ./src/*.java;
+java -cp "./build" LoadGenerator "$@";
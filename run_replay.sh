@@ -0,0 +1,6 @@
+# Java compile the client and replay a recorded session through it headless.
+# Record with: java -Dgroupchat.record=session.rec ... (GUI or CLI)
+# Example: bash run_replay.sh session.rec --speed 4
+mkdir -p "./build";
+javac -d "./build" ./src/*.java;
+java -Djava.awt.headless=true -cp "./build" ReplayDriver "$@";
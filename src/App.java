@@ -1,16 +1,18 @@
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
 
 
 public class App {
     public static void main(String[] args) {
         // Create an instance of the client.
         SocketClient client = new SocketClient("localhost", 9998, false);
+        ClientMetrics.export(client.getMetrics(), client.getServerName());
+        WireRecorder.export(client);
 
         // Create a new instance of the GUI and put it on the screen.
         Gui gui = new Gui(1280, 720);
         gui.show();
+        // Flush the local message journals however the window is closed.
+        Runtime.getRuntime().addShutdownHook(new Thread(gui::closeJournals));
 
         // Get the prompt message from the server.
         String promptMessage, name, response = null;
@@ -38,8 +40,7 @@ public class App {
         // Get the groups before the user joins any of them so there is no chance of them recieving any other message in the meantine.
         try {
             client.sendMessage("groups");
-            ArrayList<HashMap<String, Object>> groupDicts = parseGroups(client.readMessage());
-            gui.setGroups(groupDicts, client);
+            gui.setGroups(GroupDirectory.parse(client.readMessage()), client);
         } catch (IOException e) {
             System.err.println("Unable to get groups" + e.getMessage());
         }
@@ -47,21 +48,4 @@ public class App {
         // Active the listening thread to handle the remaining application behavior.
         gui.startListenerThread(client, gui);
     }
-
-    public static ArrayList<HashMap<String, Object>> parseGroups(String response) {
-        ArrayList<HashMap<String, Object>> groups = new ArrayList<>();
-        String[] lines = response.split("\n");
-        // Loop through all the lines of the response and store the information in dictionaries.
-        for (String line : lines) {
-            HashMap<String, Object> group = new HashMap<>();
-            int nameStartIndex = line.indexOf(":") + 1;            
-            int nameEndIndex = line.indexOf(",");
-            String name = line.substring(nameStartIndex, nameEndIndex);
-            group.put("name", name);
-            int index = Character.getNumericValue(line.charAt(line.length() - 1));
-            group.put("index", index);
-            groups.add(group);
-        }
-        return groups;
-    }
 }
@@ -0,0 +1,255 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+public class BatchClient {
+    // Exit statuses: everything succeeded, some command got an error reply, bad arguments or no session, the
+    // connection was lost with commands still waiting for replies.
+    static final int OK = 0;
+    static final int COMMAND_FAILED = 1;
+    static final int USAGE = 2;
+    static final int DISCONNECTED = 3;
+
+    private final SocketClient client;
+    private final int concurrency;
+    private final boolean announcements;
+    private final PrintStream out;
+    // Unanswered commands allowed on the wire at once; a grouppost with its subject and body counts as one.
+    private final Semaphore window;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+
+    private static final class Unit {
+        // One line of the script, or three for a post, and the line it started on.
+        final int line;
+        final List<String> commands;
+
+        Unit(int line, List<String> commands) {
+            this.line = line;
+            this.commands = commands;
+        }
+    }
+
+    public BatchClient(SocketClient client, int concurrency, boolean announcements, PrintStream out) {
+        this.client = client;
+        this.concurrency = concurrency;
+        this.announcements = announcements;
+        this.out = out;
+        this.window = new Semaphore(concurrency);
+    }
+
+    public int run(BufferedReader script, long lingerMillis) throws IOException, InterruptedException {
+        this.client.startDispatcher(new EventDispatcher()
+                .on(ProtocolEvent.Empty.class, event -> { })
+                .otherwise(event -> {
+                    if (this.announcements) line("announcement", -1, null, -1, event.getClass().getSimpleName(), event.getText());
+                })
+                .onDisconnect(cause -> { }));
+
+        // Send as soon as there is room in the window, taking along whatever else is already buffered so a fast script
+        // goes out in few writes.
+        int[] lineNumber = {0};
+        Unit unit;
+        while ((unit = nextUnit(script, lineNumber)) != null) {
+            this.window.acquire();
+            ArrayList<Unit> units = new ArrayList<>();
+            units.add(unit);
+            while (script.ready() && this.window.tryAcquire()) {
+                Unit more = nextUnit(script, lineNumber);
+                if (more == null) {
+                    this.window.release();
+                    break;
+                }
+                units.add(more);
+            }
+            if (!send(units)) break;
+        }
+
+        // Every reply, then anything else the server has to say.
+        this.window.acquire(this.concurrency);
+        if (lingerMillis > 0) Thread.sleep(lingerMillis);
+        line("done", -1, null, -1, null, String.format(Locale.ROOT, "%d sent, %d failed, %d lost",
+                this.sent.sum(), this.failed.sum(), this.lost.sum()));
+        this.out.flush();
+        if (this.lost.sum() > 0) return DISCONNECTED;
+        return this.failed.sum() > 0 ? COMMAND_FAILED : OK;
+    }
+
+    private Unit nextUnit(BufferedReader script, int[] lineNumber) throws IOException {
+        // Blank lines and lines starting with # are skipped. A post takes its subject and body from the next two lines,
+        // just as typed at the interactive prompt.
+        String line;
+        while ((line = script.readLine()) != null) {
+            lineNumber[0]++;
+            if (line.isBlank() || line.startsWith("#")) continue;
+            int start = lineNumber[0];
+            ArrayList<String> commands = new ArrayList<>(3);
+            commands.add(line.strip());
+            String command = line.strip().split(" ")[0];
+            if (command.equals("grouppost") || command.equals("post")) {
+                for (int i = 0; i < 2; i++) {
+                    String part = script.readLine();
+                    if (part == null) break;
+                    lineNumber[0]++;
+                    commands.add(part);
+                }
+            }
+            return new Unit(start, commands);
+        }
+        return null;
+    }
+
+    private boolean send(List<Unit> units) {
+        ArrayList<String> commands = new ArrayList<>();
+        for (Unit unit : units) commands.addAll(unit.commands);
+        List<CompletableFuture<String>> replies;
+        long sentNanos = System.nanoTime();
+        try {
+            replies = this.client.pipeline(commands);
+        } catch (IOException e) {
+            for (Unit unit : units) {
+                this.lost.increment();
+                line("error", unit.line, unit.commands.get(0), -1, null, e.getMessage());
+                this.window.release();
+            }
+            return false;
+        }
+        // A unit is answered by its first error, or else by the reply to its last command: a post's "Message posted!"
+        // after the two prompts.
+        int index = 0;
+        for (Unit unit : units) {
+            List<CompletableFuture<String>> unitReplies = replies.subList(index, index + unit.commands.size());
+            index += unit.commands.size();
+            this.sent.increment();
+            CompletableFuture.allOf(unitReplies.toArray(new CompletableFuture<?>[0])).whenComplete((done, e) -> {
+                double millis = (System.nanoTime() - sentNanos) / 1e6;
+                if (e != null) {
+                    this.lost.increment();
+                    line("error", unit.line, unit.commands.get(0), millis, null, e.getMessage());
+                } else {
+                    String frame = null;
+                    ProtocolEvent event = null;
+                    for (CompletableFuture<String> reply : unitReplies) {
+                        frame = reply.join();
+                        event = ProtocolParser.parse(frame);
+                        if (event instanceof ProtocolEvent.Error) break;
+                    }
+                    boolean error = event instanceof ProtocolEvent.Error;
+                    if (error) this.failed.increment();
+                    line(error ? "failed" : "reply", unit.line, unit.commands.get(0), millis, event.getClass().getSimpleName(), frame);
+                }
+                this.window.release();
+            });
+        }
+        return true;
+    }
+
+    private void line(String type, int line, String command, double millis, String event, String text) {
+        // One JSON object per line, fields in a fixed order so the output also greps well.
+        StringBuilder json = new StringBuilder(128);
+        json.append("{\"time\":\"").append(Instant.now()).append("\",\"type\":\"").append(type).append('"');
+        if (line >= 0) json.append(",\"line\":").append(line);
+        if (command != null) json.append(",\"command\":").append(quote(command));
+        if (millis >= 0) json.append(String.format(Locale.ROOT, ",\"ms\":%.3f", millis));
+        if (event != null) json.append(",\"event\":\"").append(event).append('"');
+        json.append(",\"text\":").append(quote(text == null ? "" : text.strip())).append('}');
+        this.out.println(json);
+    }
+
+    static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"': quoted.append("\\\""); break;
+                case '\\': quoted.append("\\\\"); break;
+                case '\n': quoted.append("\\n"); break;
+                case '\r': quoted.append("\\r"); break;
+                case '\t': quoted.append("\\t"); break;
+                default:
+                    if (c < 0x20) quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    else quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    public static int start(String[] args, int first) throws IOException, InterruptedException {
+        // Arguments after --batch: where to connect, as whom, the script (stdin by default) and how many commands may
+        // be waiting for replies at once.
+        String host = "localhost";
+        int port = 9998;
+        String user = "batch-" + ProcessHandle.current().pid();
+        String script = null;
+        int concurrency = 64;
+        long linger = 0;
+        boolean announcements = true;
+        try {
+            for (int i = first; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--host": host = args[++i]; break;
+                    case "--port": port = Integer.parseInt(args[++i]); break;
+                    case "--user": user = args[++i]; break;
+                    case "--script": script = args[++i]; break;
+                    case "--concurrency": concurrency = Math.max(1, Integer.parseInt(args[++i])); break;
+                    case "--linger": linger = Long.parseLong(args[++i]); break;
+                    case "--no-announcements": announcements = false; break;
+                    default: throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Usage: SocketClient --batch [--host h] [--port p] [--user name] [--script file]"
+                    + " [--concurrency n] [--linger ms] [--no-announcements]");
+            return USAGE;
+        }
+
+        SocketClient client;
+        try {
+            client = SocketClient.connect(host, port);
+        } catch (IOException e) {
+            System.err.println("Could not connect to the server: " + e.getMessage());
+            return USAGE;
+        }
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 64 * 1024), false, StandardCharsets.UTF_8);
+        try {
+            client.readMessage();
+            client.sendMessage(user);
+            ProtocolEvent welcome = ProtocolParser.parse(client.readMessage());
+            if (!(welcome instanceof ProtocolEvent.Welcome)) {
+                System.err.println("Could not log in as " + user + ": " + welcome.getText().strip());
+                return USAGE;
+            }
+        } catch (IOException e) {
+            System.err.println("Could not connect to the server: " + e.getMessage());
+            return USAGE;
+        }
+        ClientMetrics.export(client.getMetrics(), client.getServerName());
+        WireRecorder.export(client);
+
+        BufferedReader reader = script == null
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Path.of(script));
+        try (reader) {
+            return new BatchClient(client, concurrency, announcements, out).run(reader, linger);
+        } finally {
+            out.flush();
+            client.close();
+            client.getMetrics().unregister();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+public class ClientMetrics implements ClientMetricsMBean {
+    // Commands get their own latency histogram, anything else (subject and body lines, typos) shares "other", so the
+    // table is fixed once built and recording never allocates or locks.
+    private static final String[] COMMANDS = {"groupjoin", "join", "groupmessage", "message", "grouppost", "post",
+            "groupusers", "users", "groups", "groupleave", "leave", "usergroupinfo"};
+    private static final String OTHER = "other";
+
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder framesIn = new LongAdder();
+    private final LongAdder framesOut = new LongAdder();
+    private final LongAdder readCalls = new LongAdder();
+    private final LongAdder announcements = new LongAdder();
+    private final LatencyHistogram readsPerFrame = new LatencyHistogram();
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+    private final AtomicInteger maxQueuedFrames = new AtomicInteger();
+    private final LongAdder inboundDropped = new LongAdder();
+    private final AtomicInteger maxInboundBacklog = new AtomicInteger();
+
+    // Read by whoever asks, supplied by the client that owns the queues.
+    private volatile IntSupplier pendingReplies = () -> 0;
+    private volatile IntSupplier queuedFrames = () -> 0;
+    private volatile IntSupplier inboundBacklog = () -> 0;
+
+    // Totals at the previous dump, for per-second rates over the interval.
+    private long lastDumpNanos = System.nanoTime();
+    private long lastFramesIn;
+    private long lastFramesOut;
+    private long lastAnnouncements;
+    private long lastBytesIn;
+
+    private ObjectName objectName;
+    private ScheduledExecutorService dumper;
+
+    public ClientMetrics() {
+        for (String command : COMMANDS) this.latencies.put(command, new LatencyHistogram());
+        this.latencies.put(OTHER, new LatencyHistogram());
+    }
+
+    static String commandType(String command) {
+        for (String known : COMMANDS) {
+            if (command.startsWith(known) && (command.length() == known.length() || command.charAt(known.length()) == ' ')) return known;
+        }
+        return OTHER;
+    }
+
+    void setGauges(IntSupplier pendingReplies, IntSupplier queuedFrames) {
+        this.pendingReplies = pendingReplies;
+        this.queuedFrames = queuedFrames;
+    }
+
+    void setInboundBacklog(IntSupplier inboundBacklog) {
+        this.inboundBacklog = inboundBacklog;
+    }
+
+    void bytesRead(int count) {
+        this.readCalls.increment();
+        this.bytesIn.add(count);
+    }
+
+    void frameRead(int reads) {
+        // reads is how many read calls it took since the previous frame, 0 when it was already buffered.
+        this.framesIn.increment();
+        this.readsPerFrame.record(reads);
+    }
+
+    void commandsSent(int commands, long bytes) {
+        this.framesOut.add(commands);
+        this.bytesOut.add(bytes);
+    }
+
+    void replyReceived(String commandType, long nanos) {
+        this.latencies.get(commandType).record(nanos);
+    }
+
+    void announcementReceived() {
+        this.announcements.increment();
+    }
+
+    void queued(int frames) {
+        if (frames > this.maxQueuedFrames.get()) this.maxQueuedFrames.accumulateAndGet(frames, Math::max);
+    }
+
+    void inboundQueued(int backlog) {
+        if (backlog > this.maxInboundBacklog.get()) this.maxInboundBacklog.accumulateAndGet(backlog, Math::max);
+    }
+
+    void inboundDropped() {
+        this.inboundDropped.increment();
+    }
+
+    public LatencyHistogram latency(String commandType) {
+        return this.latencies.get(commandType);
+    }
+
+    @Override
+    public long getBytesIn() {
+        return this.bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return this.bytesOut.sum();
+    }
+
+    @Override
+    public long getFramesIn() {
+        return this.framesIn.sum();
+    }
+
+    @Override
+    public long getFramesOut() {
+        return this.framesOut.sum();
+    }
+
+    @Override
+    public long getReadCalls() {
+        return this.readCalls.sum();
+    }
+
+    @Override
+    public double getMeanReadsPerFrame() {
+        return this.readsPerFrame.mean();
+    }
+
+    @Override
+    public long getMaxReadsPerFrame() {
+        return this.readsPerFrame.max();
+    }
+
+    @Override
+    public long getAnnouncements() {
+        return this.announcements.sum();
+    }
+
+    @Override
+    public int getPendingReplies() {
+        return this.pendingReplies.getAsInt();
+    }
+
+    @Override
+    public int getQueuedFrames() {
+        return this.queuedFrames.getAsInt();
+    }
+
+    @Override
+    public int getMaxQueuedFrames() {
+        return this.maxQueuedFrames.get();
+    }
+
+    @Override
+    public int getInboundBacklog() {
+        return this.inboundBacklog.getAsInt();
+    }
+
+    @Override
+    public int getMaxInboundBacklog() {
+        return this.maxInboundBacklog.get();
+    }
+
+    @Override
+    public long getInboundDropped() {
+        return this.inboundDropped.sum();
+    }
+
+    @Override
+    public String[] getCommandLatencies() {
+        ArrayList<String> lines = new ArrayList<>();
+        for (Map.Entry<String, LatencyHistogram> entry : this.latencies.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            if (histogram.count() == 0) continue;
+            lines.add(String.format(Locale.ROOT, "%s count=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms", entry.getKey(),
+                    histogram.count(), histogram.mean() / 1e6, histogram.percentile(50) / 1e6,
+                    histogram.percentile(99) / 1e6, histogram.max() / 1e6));
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    public synchronized String dump() {
+        // Totals plus per-second rates since the previous dump, which is where fan-out storms show up.
+        long now = System.nanoTime();
+        double seconds = Math.max((now - this.lastDumpNanos) / 1e9, 1e-9);
+        long framesIn = getFramesIn();
+        long framesOut = getFramesOut();
+        long announcements = getAnnouncements();
+        long bytesIn = getBytesIn();
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT,
+                "in: %d frames (%.1f/s), %d bytes (%.1f KB/s), %d reads, %.2f reads/frame (max %d)%n",
+                framesIn, (framesIn - this.lastFramesIn) / seconds, bytesIn, (bytesIn - this.lastBytesIn) / seconds / 1024,
+                getReadCalls(), getMeanReadsPerFrame(), getMaxReadsPerFrame()));
+        text.append(String.format(Locale.ROOT, "out: %d commands (%.1f/s), %d bytes%n",
+                framesOut, (framesOut - this.lastFramesOut) / seconds, getBytesOut()));
+        text.append(String.format(Locale.ROOT, "announcements: %d (%.1f/s)%n",
+                announcements, (announcements - this.lastAnnouncements) / seconds));
+        text.append(String.format(Locale.ROOT, "backlog: %d replies pending, %d frames queued (max %d)%n",
+                getPendingReplies(), getQueuedFrames(), getMaxQueuedFrames()));
+        text.append(String.format(Locale.ROOT, "events: %d waiting for handlers (max %d), %d dropped%n",
+                getInboundBacklog(), getMaxInboundBacklog(), getInboundDropped()));
+        for (String line : getCommandLatencies()) text.append("latency ").append(line).append(System.lineSeparator());
+        this.lastDumpNanos = now;
+        this.lastFramesIn = framesIn;
+        this.lastFramesOut = framesOut;
+        this.lastAnnouncements = announcements;
+        this.lastBytesIn = bytesIn;
+        return text.toString();
+    }
+
+    @Override
+    public synchronized void reset() {
+        this.bytesIn.reset();
+        this.bytesOut.reset();
+        this.framesIn.reset();
+        this.framesOut.reset();
+        this.readCalls.reset();
+        this.announcements.reset();
+        this.readsPerFrame.reset();
+        for (LatencyHistogram histogram : this.latencies.values()) histogram.reset();
+        this.maxQueuedFrames.set(0);
+        this.inboundDropped.reset();
+        this.maxInboundBacklog.set(0);
+        this.lastDumpNanos = System.nanoTime();
+        this.lastFramesIn = 0;
+        this.lastFramesOut = 0;
+        this.lastAnnouncements = 0;
+        this.lastBytesIn = 0;
+    }
+
+    public synchronized void register(String name) throws JMException {
+        this.objectName = new ObjectName("groupchat:type=ClientMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, this.objectName);
+    }
+
+    public synchronized void unregister() {
+        if (this.objectName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+        } catch (JMException e) {
+            // Already gone.
+        }
+        this.objectName = null;
+    }
+
+    public synchronized void startDump(long periodSeconds, PrintStream out) {
+        if (this.dumper != null) return;
+        this.dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dumper.scheduleAtFixedRate(() -> out.print("[metrics]" + System.lineSeparator() + dump()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopDump() {
+        if (this.dumper != null) this.dumper.shutdownNow();
+        this.dumper = null;
+    }
+
+    public static void export(ClientMetrics metrics, String name) {
+        // JMX unless -Dgroupchat.metrics.jmx=false, a text dump to stderr every N seconds with -Dgroupchat.metrics.dump=N.
+        if (Boolean.parseBoolean(System.getProperty("groupchat.metrics.jmx", "true"))) {
+            try {
+                metrics.register(name);
+            } catch (JMException e) {
+                System.err.println("Could not register client metrics: " + e.getMessage());
+            }
+        }
+        long period = Long.getLong("groupchat.metrics.dump", 0);
+        if (period > 0) metrics.startDump(period, System.err);
+    }
+}
@@ -0,0 +1,37 @@
+public interface ClientMetricsMBean {
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getFramesIn();
+
+    long getFramesOut();
+
+    long getReadCalls();
+
+    double getMeanReadsPerFrame();
+
+    long getMaxReadsPerFrame();
+
+    long getAnnouncements();
+
+    int getPendingReplies();
+
+    int getQueuedFrames();
+
+    int getMaxQueuedFrames();
+
+    // Events read but not yet handled, and announcements dropped because the handlers fell behind.
+    int getInboundBacklog();
+
+    int getMaxInboundBacklog();
+
+    long getInboundDropped();
+
+    // One line per command type that has had a reply: count, mean, p50, p99 and max in milliseconds.
+    String[] getCommandLatencies();
+
+    String dump();
+
+    void reset();
+}
@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+public class EventDispatcher {
+    // Dispatch table from event class to its handlers, filled once at startup and only read afterwards.
+    private final HashMap<Class<? extends ProtocolEvent>, List<Consumer<ProtocolEvent>>> handlers = new HashMap<>();
+    // See every event before it is dispatched without counting as a handler for it.
+    private final List<Consumer<ProtocolEvent>> taps = new ArrayList<>();
+    // Run once after each batch of events, where work the handlers only marked as needed gets done.
+    private final List<Runnable> batchEndHandlers = new ArrayList<>();
+    private Consumer<ProtocolEvent> fallback = event -> { };
+    private Consumer<String> staleHandler = group -> { };
+    private Consumer<IOException> disconnectHandler = cause -> { };
+
+    @SuppressWarnings("unchecked")
+    public <T extends ProtocolEvent> EventDispatcher on(Class<T> type, Consumer<? super T> handler) {
+        this.handlers.computeIfAbsent(type, t -> new ArrayList<>()).add(event -> handler.accept((T) event));
+        return this;
+    }
+
+    public EventDispatcher otherwise(Consumer<ProtocolEvent> handler) {
+        // Receives every event nobody registered for.
+        this.fallback = handler;
+        return this;
+    }
+
+    public EventDispatcher tap(Consumer<ProtocolEvent> observer) {
+        this.taps.add(observer);
+        return this;
+    }
+
+    public EventDispatcher onBatchEnd(Runnable handler) {
+        this.batchEndHandlers.add(handler);
+        return this;
+    }
+
+    public EventDispatcher onStale(Consumer<String> handler) {
+        // Receives groups whose announcements were dropped because the client fell behind.
+        this.staleHandler = handler;
+        return this;
+    }
+
+    public EventDispatcher onDisconnect(Consumer<IOException> handler) {
+        this.disconnectHandler = handler;
+        return this;
+    }
+
+    public void dispatch(String frame) {
+        dispatch(ProtocolParser.parse(frame));
+    }
+
+    public void dispatch(ProtocolEvent event) {
+        // A batch of one.
+        handle(event);
+        endBatch();
+    }
+
+    public void dispatchBatch(List<ProtocolEvent> events) {
+        for (ProtocolEvent event : events) handle(event);
+        endBatch();
+    }
+
+    private void endBatch() {
+        for (Runnable handler : this.batchEndHandlers) handler.run();
+    }
+
+    private void handle(ProtocolEvent event) {
+        for (Consumer<ProtocolEvent> observer : this.taps) observer.accept(event);
+        List<Consumer<ProtocolEvent>> registered = this.handlers.get(event.getClass());
+        if (registered == null) {
+            this.fallback.accept(event);
+            return;
+        }
+        for (Consumer<ProtocolEvent> handler : registered) handler.accept(event);
+    }
+
+    public void stale(String group) {
+        this.staleHandler.accept(group);
+    }
+
+    public void disconnected(IOException cause) {
+        this.disconnectHandler.accept(cause);
+    }
+}
@@ -0,0 +1,153 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+public class EventPump implements Executor {
+    public enum Overflow {
+        // The reader waits for room, so it stops reading the socket and TCP slows the server down. Nothing is lost.
+        BLOCK,
+        // Join, leave and post announcements that do not fit are dropped and their group is reported stale once the
+        // backlog is gone, so it can catch up with one request. Replies and acks still wait for room.
+        MARK_STALE
+    }
+
+    private static final int BATCH = 256;
+
+    private final EventDispatcher events;
+    private final EventRing<ProtocolEvent> ring;
+    private final Overflow overflow;
+    // Groups that lost announcements to a full ring, written by the reader and taken by the consumer.
+    private final Set<String> staleGroups = ConcurrentHashMap.newKeySet();
+    // Work handed over from other threads, e.g. what to do with a reply, run by the consumer between batches.
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final ArrayList<ProtocolEvent> batch = new ArrayList<>(BATCH);
+    private final Thread consumer;
+    private volatile boolean consumerWaiting;
+    private volatile boolean running = true;
+    private ClientMetrics metrics;
+
+    public EventPump(EventDispatcher events, int capacity, Overflow overflow) {
+        // Sits between the socket reader and the handlers: the reader publishes, one consumer thread dispatches.
+        this.events = events;
+        this.ring = new EventRing<>(capacity);
+        this.overflow = overflow;
+        this.consumer = new Thread(this::consume, "event-consumer");
+        this.consumer.setDaemon(true);
+    }
+
+    public EventDispatcher getEvents() {
+        return this.events;
+    }
+
+    void setMetrics(ClientMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void start() {
+        this.consumer.start();
+    }
+
+    public void stop() {
+        this.running = false;
+        LockSupport.unpark(this.consumer);
+    }
+
+    public int backlog() {
+        return this.ring.size();
+    }
+
+    public boolean isIdle() {
+        // Nothing queued and the consumer waiting for more, so every handler has returned.
+        return this.consumerWaiting && this.ring.isEmpty() && this.staleGroups.isEmpty() && this.tasks.isEmpty();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        // Safe from any thread. The task runs on the consumer like a handler, so it needs no locking against them and
+        // may send commands without holding up the socket reader.
+        this.tasks.add(task);
+        if (this.consumerWaiting) LockSupport.unpark(this.consumer);
+    }
+
+    public void publish(ProtocolEvent event) {
+        // Only ever called from one thread at a time, the one reading the socket.
+        while (!this.ring.offer(event)) {
+            if (this.overflow == Overflow.MARK_STALE && dropped(event)) {
+                if (this.consumerWaiting) LockSupport.unpark(this.consumer);
+                return;
+            }
+            if (!this.running) return;
+            LockSupport.unpark(this.consumer);
+            LockSupport.parkNanos(100_000);
+        }
+        if (this.metrics != null) this.metrics.inboundQueued(this.ring.size());
+        if (this.consumerWaiting) LockSupport.unpark(this.consumer);
+    }
+
+    private boolean dropped(ProtocolEvent event) {
+        // The empty frame after a post carries nothing, everything else that is dropped leaves its group stale.
+        String group = groupOf(event);
+        if (group == null && !(event instanceof ProtocolEvent.Empty)) return false;
+        if (group != null) this.staleGroups.add(group);
+        if (this.metrics != null) this.metrics.inboundDropped();
+        return true;
+    }
+
+    private static String groupOf(ProtocolEvent event) {
+        if (event instanceof ProtocolEvent.PostAnnouncement) return ((ProtocolEvent.PostAnnouncement) event).group;
+        if (event instanceof ProtocolEvent.MemberJoined) return ((ProtocolEvent.MemberJoined) event).group;
+        if (event instanceof ProtocolEvent.MemberLeft) return ((ProtocolEvent.MemberLeft) event).group;
+        return null;
+    }
+
+    private void consume() {
+        while (this.running) {
+            this.batch.clear();
+            if (this.ring.drain(this.batch, BATCH) > 0) {
+                try {
+                    this.events.dispatchBatch(this.batch);
+                } catch (RuntimeException e) {
+                    System.err.println("Error handling server message: " + e);
+                }
+            }
+            runTasks();
+            // Stale groups are only reported once the backlog is gone, or a long storm would resync them over and over.
+            if (!this.ring.isEmpty()) continue;
+            if (!this.staleGroups.isEmpty()) {
+                reportStale();
+                continue;
+            }
+            this.consumerWaiting = true;
+            if (this.ring.isEmpty() && this.staleGroups.isEmpty() && this.tasks.isEmpty() && this.running) LockSupport.park(this);
+            this.consumerWaiting = false;
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = this.tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Error handling server message: " + e);
+            }
+        }
+    }
+
+    private void reportStale() {
+        Iterator<String> groups = this.staleGroups.iterator();
+        while (groups.hasNext()) {
+            String group = groups.next();
+            groups.remove();
+            try {
+                this.events.stale(group);
+            } catch (RuntimeException e) {
+                System.err.println("Error handling server message: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class EventRing<E> {
+    // Bounded and lock-free for exactly one producer thread and one consumer thread. Each side only writes its own
+    // counter and keeps a cached copy of the other's, so the shared counters are read once per wrap or batch, not per
+    // element.
+    private final Object[] slots;
+    private final int mask;
+    // Next slot to read, written by the consumer.
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to write, written by the producer.
+    private final AtomicLong tail = new AtomicLong();
+    private long headCache;
+    private long tailCache;
+
+    public EventRing(int capacity) {
+        // Rounded up to a power of two so a slot is a mask away from its sequence number.
+        if (capacity < 1 || capacity > 1 << 30) throw new IllegalArgumentException("Invalid ring capacity " + capacity);
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new Object[size];
+        this.mask = size - 1;
+    }
+
+    public boolean offer(E element) {
+        // Producer only. False when the ring is full, the caller decides what overflowing means.
+        long t = this.tail.getPlain();
+        if (t - this.headCache >= this.slots.length) {
+            this.headCache = this.head.get();
+            if (t - this.headCache >= this.slots.length) return false;
+        }
+        this.slots[(int) t & this.mask] = element;
+        this.tail.set(t + 1);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public int drain(List<? super E> into, int max) {
+        // Consumer only. Moves up to max elements into the list and frees their slots with a single publish.
+        long h = this.head.getPlain();
+        if (h >= this.tailCache) {
+            this.tailCache = this.tail.get();
+            if (h >= this.tailCache) return 0;
+        }
+        int count = (int) Math.min(max, this.tailCache - h);
+        for (int i = 0; i < count; i++) {
+            int slot = (int) (h + i) & this.mask;
+            into.add((E) this.slots[slot]);
+            this.slots[slot] = null;
+        }
+        this.head.set(h + count);
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return this.head.get() >= this.tail.get();
+    }
+
+    public int size() {
+        // From any thread, a snapshot.
+        long h = this.head.get();
+        return (int) Math.max(0, this.tail.get() - h);
+    }
+
+    public int capacity() {
+        return this.slots.length;
+    }
+}
@@ -0,0 +1,103 @@
+import java.nio.charset.StandardCharsets;
+
+public class FrameDecoder implements FrameSource {
+    // The delimiter the server appends to the end of every message.
+    public static final byte[] END = "<END>".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] delimiter;
+    private final FrameQueue frames = new FrameQueue();
+
+    // Bytes that have been received but not yet handed out as part of a frame live in buffer[start, end).
+    private byte[] buffer;
+    private int start;
+    private int end;
+    // Where the next delimiter search resumes, so bytes that were already scanned are never looked at twice.
+    private int scanFrom;
+
+    public FrameDecoder() {
+        this(END);
+    }
+
+    public FrameDecoder(byte[] delimiter) {
+        this.delimiter = delimiter.clone();
+        this.buffer = new byte[4096];
+    }
+
+    @Override
+    public void feed(byte[] data, int offset, int length) {
+        // Add the new bytes after whatever is left over from the previous reads, then pull out every complete frame.
+        ensureCapacity(length);
+        System.arraycopy(data, offset, this.buffer, this.end, length);
+        this.end += length;
+        scan();
+    }
+
+    private void scan() {
+        int last = this.end - this.delimiter.length;
+        int i = this.scanFrom;
+        while (i <= last) {
+            if (matchesAt(i)) {
+                this.frames.add(new String(this.buffer, this.start, i - this.start, StandardCharsets.UTF_8), TYPE_UNKNOWN);
+                this.start = i + this.delimiter.length;
+                i = this.start;
+            } else {
+                i++;
+            }
+        }
+        // The tail may hold the beginning of a delimiter that is split across reads, so only skip what cannot match.
+        this.scanFrom = Math.max(this.start, last + 1);
+        if (this.start == this.end) {
+            this.start = 0;
+            this.end = 0;
+            this.scanFrom = 0;
+        }
+    }
+
+    private boolean matchesAt(int index) {
+        for (int j = 0; j < this.delimiter.length; j++) {
+            if (this.buffer[index + j] != this.delimiter[j]) return false;
+        }
+        return true;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (this.end + extra <= this.buffer.length) return;
+        int pending = this.end - this.start;
+        if (pending + extra <= this.buffer.length && this.start > 0) {
+            // Slide the pending bytes to the front instead of growing.
+            System.arraycopy(this.buffer, this.start, this.buffer, 0, pending);
+        } else {
+            byte[] grown = new byte[Math.max(this.buffer.length * 2, pending + extra)];
+            System.arraycopy(this.buffer, this.start, grown, 0, pending);
+            this.buffer = grown;
+        }
+        this.scanFrom -= this.start;
+        this.start = 0;
+        this.end = pending;
+    }
+
+    @Override
+    public String poll() {
+        return this.frames.poll();
+    }
+
+    @Override
+    public byte lastType() {
+        return this.frames.lastType();
+    }
+
+    @Override
+    public int queued() {
+        return this.frames.size();
+    }
+
+    @Override
+    public boolean hasFrame() {
+        return this.frames.size() > 0;
+    }
+
+    @Override
+    public int pendingBytes() {
+        return this.end - this.start;
+    }
+}
@@ -0,0 +1,27 @@
+import java.util.ArrayDeque;
+
+class FrameQueue {
+    // The frames a FrameSource has decoded but not handed out yet, together with their types.
+    private final ArrayDeque<String> frames = new ArrayDeque<>();
+    private final ArrayDeque<Byte> types = new ArrayDeque<>();
+    private byte lastType = FrameSource.TYPE_UNKNOWN;
+
+    void add(String frame, byte type) {
+        this.frames.add(frame);
+        this.types.add(type);
+    }
+
+    String poll() {
+        String frame = this.frames.poll();
+        if (frame != null) this.lastType = this.types.poll();
+        return frame;
+    }
+
+    byte lastType() {
+        return this.lastType;
+    }
+
+    int size() {
+        return this.frames.size();
+    }
+}
@@ -0,0 +1,24 @@
+public interface FrameSource {
+    // Turns the bytes read from the server into frames. FrameDecoder splits them on "<END>", LengthFrameDecoder reads
+    // the length-prefixed, typed frames both sides switch to once binary framing has been negotiated.
+
+    // Delimited frames carry no type, length-prefixed ones say whether they are a reply or an announcement.
+    byte TYPE_UNKNOWN = -1;
+
+    // Throws IllegalStateException if the bytes cannot be a frame.
+    void feed(byte[] data, int offset, int length);
+
+    // Returns the oldest complete frame, or null if there is none yet.
+    String poll();
+
+    // The type of the frame most recently returned by poll().
+    byte lastType();
+
+    // Complete frames not handed out yet.
+    int queued();
+
+    boolean hasFrame();
+
+    // Bytes received that are not part of a complete frame yet.
+    int pendingBytes();
+}
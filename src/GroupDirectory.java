@@ -0,0 +1,136 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+public class GroupDirectory {
+    public static final class Group {
+        public final int id;
+        public final String name;
+
+        Group(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return this.id + ": " + this.name;
+        }
+    }
+
+    private static final String NAME_KEY = "Group name: ";
+    private static final String ID_KEY = ", Group ID: ";
+
+    // In the server's order, plus the two indexes. Nothing changes after parsing, so it can be shared across threads.
+    private final List<Group> groups;
+    private final HashMap<String, Group> byName;
+    private final Group[] byId;
+
+    private GroupDirectory(List<Group> groups) {
+        this.groups = Collections.unmodifiableList(groups);
+        this.byName = new HashMap<>(groups.size() * 4 / 3 + 1);
+        for (Group group : groups) this.byName.put(group.name, group);
+        this.byId = groups.toArray(new Group[0]);
+        Arrays.sort(this.byId, Comparator.comparingInt(group -> group.id));
+    }
+
+    public static GroupDirectory parse(String response) {
+        // One pass over the "groups" reply, a line per group: "Group name: <name>, Group ID: <id>". Lines that do not
+        // look like that are skipped.
+        ArrayList<Group> groups = new ArrayList<>();
+        int length = response.length();
+        int start = 0;
+        while (start < length) {
+            int end = response.indexOf('\n', start);
+            if (end < 0) end = length;
+            Group group = parseLine(response, start, end);
+            if (group != null) groups.add(group);
+            start = end + 1;
+        }
+        return new GroupDirectory(groups);
+    }
+
+    private static Group parseLine(String response, int start, int end) {
+        if (!response.startsWith(NAME_KEY, start)) return null;
+        // The id comes last, so search back from the end in case the name has a comma in it.
+        int idKey = response.lastIndexOf(ID_KEY, end - ID_KEY.length());
+        if (idKey < start + NAME_KEY.length()) return null;
+        int idStart = idKey + ID_KEY.length();
+        int idEnd = idStart;
+        while (idEnd < end && Character.isDigit(response.charAt(idEnd))) idEnd++;
+        if (idEnd == idStart) return null;
+        try {
+            return new Group(Integer.parseInt(response, idStart, idEnd, 10), response.substring(start + NAME_KEY.length(), idKey).strip());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public int size() {
+        return this.groups.size();
+    }
+
+    public List<Group> all() {
+        return this.groups;
+    }
+
+    public Group byName(String name) {
+        return this.byName.get(name);
+    }
+
+    public Group byId(int id) {
+        int low = 0;
+        int high = this.byId.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int value = this.byId[middle].id;
+            if (value < id) low = middle + 1;
+            else if (value > id) high = middle - 1;
+            else return this.byId[middle];
+        }
+        return null;
+    }
+
+    public Group find(String nameOrId) {
+        // Commands accept either, like the server does.
+        Group group = byName(nameOrId);
+        if (group != null || nameOrId.isEmpty()) return group;
+        for (int i = 0; i < nameOrId.length(); i++) {
+            if (!Character.isDigit(nameOrId.charAt(i))) return null;
+        }
+        try {
+            return byId(Integer.parseInt(nameOrId));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public List<Group> search(String query, int limit) {
+        // Case-insensitive: names starting with the query first, then names containing it, each in server order.
+        String needle = query.strip();
+        if (needle.isEmpty()) return this.groups.size() <= limit ? this.groups : this.groups.subList(0, limit);
+        ArrayList<Group> prefixed = new ArrayList<>();
+        ArrayList<Group> containing = new ArrayList<>();
+        for (Group group : this.groups) {
+            if (prefixed.size() >= limit) break;
+            int at = indexOfIgnoreCase(group.name, needle);
+            if (at == 0) prefixed.add(group);
+            else if (at > 0 && prefixed.size() + containing.size() < limit) containing.add(group);
+        }
+        for (Group group : containing) {
+            if (prefixed.size() >= limit) break;
+            prefixed.add(group);
+        }
+        return prefixed;
+    }
+
+    private static int indexOfIgnoreCase(String text, String needle) {
+        for (int i = 0; i + needle.length() <= text.length(); i++) {
+            if (text.regionMatches(true, i, needle, 0, needle.length())) return i;
+        }
+        return -1;
+    }
+}
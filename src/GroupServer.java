@@ -0,0 +1,492 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class GroupServer {
+    // How many announcements may wait for a client before it is considered too slow and disconnected. Replies wait
+    // for room under the same limit instead, which only holds up that client's own commands.
+    public static final int DEFAULT_OUTBOUND_LIMIT = 1024;
+
+    private final int requestedPort;
+    private final int outboundLimit;
+    private final Map<String, Group> groups = new LinkedHashMap<>();
+    private final Map<String, Group> groupsById = new LinkedHashMap<>();
+    private final ConcurrentHashMap<String, Connection> users = new ConcurrentHashMap<>();
+    private final ExecutorService executor = newConnectionExecutor();
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+
+    public GroupServer(int port) {
+        this(port, DEFAULT_OUTBOUND_LIMIT);
+    }
+
+    public GroupServer(int port, int outboundLimit) {
+        this.requestedPort = port;
+        this.outboundLimit = outboundLimit;
+        // Same groups and seed messages as the python server.
+        for (String name : new String[] {"public", "group1", "group2", "group3", "group4", "group5"}) addGroup(name);
+        for (String name : new String[] {"public", "group2"}) {
+            for (int i = 1; i <= 3; i++) this.groups.get(name).bulletin.add("Message " + i + " Body");
+        }
+    }
+
+    public Group addGroup(String name) {
+        // Groups can only be added before start().
+        Group group = new Group(name, Integer.toString(this.groups.size()));
+        this.groups.put(name, group);
+        this.groupsById.put(group.id, group);
+        return group;
+    }
+
+    public GroupServer start() throws IOException {
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.requestedPort));
+        this.running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "group-server-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    public void close() {
+        this.running = false;
+        try {
+            if (this.serverSocket != null) this.serverSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing the server: " + e.getMessage());
+        }
+        for (Connection connection : this.users.values()) connection.close();
+        this.executor.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (this.running) {
+            try {
+                Socket socket = this.serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Connection connection = new Connection(socket);
+                this.executor.execute(connection::serve);
+                this.executor.execute(connection::drain);
+            } catch (IOException e) {
+                if (this.running) System.err.println("Error accepting a connection: " + e.getMessage());
+            }
+        }
+    }
+
+    static ExecutorService newConnectionExecutor() {
+        // A virtual thread per connection where the runtime has them (JDK 21+), plain threads otherwise.
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "group-server-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private Group getGroup(String nameOrId) throws GroupException {
+        // Groups can be named or referred to by their ID, like in the python server.
+        Group group = this.groups.get(nameOrId);
+        if (group == null) group = this.groupsById.get(nameOrId);
+        if (group == null) throw new GroupException();
+        return group;
+    }
+
+    public static class Group {
+        final String name;
+        final String id;
+        // Guarded by the group itself, each group has its own lock so busy groups do not hold each other up.
+        final List<String> bulletin = new ArrayList<>();
+        final LinkedHashSet<Connection> members = new LinkedHashSet<>();
+
+        Group(String name, String id) {
+            this.name = name;
+            this.id = id;
+        }
+
+        int maxIndex() {
+            return Math.max(this.bulletin.size() - 1, 0);
+        }
+    }
+
+    private static class GroupException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final class Outgoing {
+        final byte[] bytes;
+        final boolean reply;
+
+        Outgoing(byte[] bytes, boolean reply) {
+            this.bytes = bytes;
+            this.reply = reply;
+        }
+    }
+
+    class Connection {
+        private final Socket socket;
+        private final BufferedInputStream in;
+        private final OutputStream out;
+        private final LinkedBlockingQueue<Outgoing> outbound = new LinkedBlockingQueue<>();
+        // Replies and announcements are bounded separately, so a client pipelining many commands is only slowed down
+        // while one that does not read its announcements is let go.
+        private final Semaphore replySlots = new Semaphore(outboundLimit);
+        private final AtomicInteger queuedAnnouncements = new AtomicInteger();
+        private final Map<Group, Integer> cutoffs = new ConcurrentHashMap<>();
+        private String username;
+        private volatile boolean closed;
+        // Set once the client asked for length-prefixed frames, from then on both directions use them.
+        private volatile boolean binary;
+        private byte[] lineBuffer = new byte[256];
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+        }
+
+        void serve() {
+            try {
+                if (!chooseUsername()) return;
+                String command;
+                while ((command = readCommand()) != null) handle(command);
+            } catch (IOException e) {
+                // The client went away, clean up below.
+            } finally {
+                disconnect();
+            }
+        }
+
+        private boolean chooseUsername() throws IOException {
+            // Only the first prompt offers binary framing, a client that wants it answers before sending its name.
+            reply("Enter username:" + LengthFrameDecoder.CAPABILITY);
+            while (true) {
+                String name = readCommand();
+                if (name == null) return false;
+                if (!this.binary && name.equals(LengthFrameDecoder.NEGOTIATE)) {
+                    this.binary = true;
+                    continue;
+                }
+                name = name.strip();
+                if (users.putIfAbsent(name, this) == null) {
+                    this.username = name;
+                    reply("Welcome to the server, " + name);
+                    return true;
+                }
+                reply(name + " is already in the server, please choose another username.\n");
+                reply("Enter username:");
+            }
+        }
+
+        private String readCommand() throws IOException {
+            // Read straight from the byte stream, a Reader would buffer past the switch to binary framing.
+            return this.binary ? readFrame() : readLine();
+        }
+
+        private String readLine() throws IOException {
+            int length = 0;
+            int b;
+            while ((b = this.in.read()) != '\n') {
+                if (b == -1) {
+                    if (length == 0) return null;
+                    break;
+                }
+                if (length == this.lineBuffer.length) this.lineBuffer = Arrays.copyOf(this.lineBuffer, length * 2);
+                this.lineBuffer[length++] = (byte) b;
+            }
+            if (length > 0 && this.lineBuffer[length - 1] == '\r') length--;
+            return new String(this.lineBuffer, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private String readFrame() throws IOException {
+            byte[] header = this.in.readNBytes(LengthFrameDecoder.HEADER_BYTES);
+            if (header.length < LengthFrameDecoder.HEADER_BYTES) return null;
+            int size = LengthFrameDecoder.readLength(header, 0);
+            if (size < 0 || size > LengthFrameDecoder.MAX_FRAME_BYTES) throw new IOException("Invalid frame length " + size);
+            byte[] payload = this.in.readNBytes(size);
+            if (payload.length < size) return null;
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+
+        private void handle(String command) throws IOException {
+            String[] parts = command.split(" ");
+            String method = parts[0];
+            try {
+                switch (method) {
+                    case "groupjoin": requireArgs(parts, 1); groupJoin(parts[1]); break;
+                    case "join": requireArgs(parts, 0); groupJoin("public"); break;
+                    case "groupmessage": requireArgs(parts, 2); groupMessage(parts[1], parts[2]); break;
+                    case "message": requireArgs(parts, 1); groupMessage("public", parts[1]); break;
+                    case "grouppost": requireArgs(parts, 1); groupPost(parts[1]); break;
+                    case "post": requireArgs(parts, 0); groupPost("public"); break;
+                    case "groupusers": requireArgs(parts, 1); groupUsers(parts[1]); break;
+                    case "users": requireArgs(parts, 0); groupUsers("public"); break;
+                    case "groups": requireArgs(parts, 0); groups(); break;
+                    case "groupleave": requireArgs(parts, 1); groupLeave(parts[1]); break;
+                    case "leave": requireArgs(parts, 0); groupLeave("public"); break;
+                    case "usergroupinfo": requireArgs(parts, 1); userGroupInfo(parts[1]); break;
+                    default: reply("Invalid command!");
+                }
+            } catch (IllegalArgumentException e) {
+                reply("Invalid arguments for " + method + "!");
+            } catch (GroupException e) {
+                reply("Group does not exist!");
+            } catch (IndexOutOfBoundsException e) {
+                reply("An error has occurred, please try again.");
+            }
+        }
+
+        private void requireArgs(String[] parts, int count) {
+            if (parts.length - 1 != count) throw new IllegalArgumentException();
+        }
+
+        private void groupJoin(String name) throws GroupException {
+            Group group = getGroup(name);
+            Collection<Connection> others;
+            synchronized (group) {
+                if (group.members.contains(this)) {
+                    reply("You are already in " + group.name + "!");
+                    return;
+                }
+                others = new ArrayList<>(group.members);
+                group.members.add(this);
+                // Only the last two messages are readable to someone who just joined.
+                this.cutoffs.put(group, group.maxIndex() - 1);
+            }
+            reply("You have joined " + group.name + "! ");
+            announce(this.username + " has joined " + group.name + "!", others);
+        }
+
+        private void groupMessage(String name, String index) throws GroupException {
+            Group group = getGroup(name);
+            int messageIndex;
+            try {
+                messageIndex = Integer.parseInt(index);
+            } catch (NumberFormatException e) {
+                reply("An error has occurred, please try again.");
+                return;
+            }
+            String body;
+            synchronized (group) {
+                if (!group.members.contains(this)) {
+                    reply("Cannot access messages from " + group.name + ". Consider joining the group?");
+                    return;
+                }
+                if (messageIndex < this.cutoffs.getOrDefault(group, -2)) {
+                    reply("Sorry, message " + messageIndex + " cannot be accessed.");
+                    return;
+                }
+                if (messageIndex >= group.bulletin.size()) {
+                    reply("Message " + messageIndex + " does not exist.");
+                    return;
+                }
+                // Negative indexes count from the end, like the python server's list indexing.
+                body = group.bulletin.get(messageIndex < 0 ? group.bulletin.size() + messageIndex : messageIndex);
+            }
+            reply(body);
+        }
+
+        private void groupPost(String name) throws GroupException, IOException {
+            Group group = getGroup(name);
+            synchronized (group) {
+                if (!group.members.contains(this)) {
+                    reply("Cannot post to group " + group.name + ". Consider joining the group?");
+                    return;
+                }
+            }
+            reply("Enter message subject:");
+            String subject = readCommand();
+            if (subject == null) throw new SocketException("Client disconnected");
+            reply("Enter message body:");
+            String body = readCommand();
+            if (body == null) throw new SocketException("Client disconnected");
+
+            int messageIndex;
+            Collection<Connection> others;
+            synchronized (group) {
+                group.bulletin.add(body);
+                messageIndex = group.maxIndex();
+                others = new ArrayList<>(group.members);
+            }
+            reply("Message posted!");
+            String now = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
+            announce("Message ID: " + messageIndex + "\n"
+                    + "Group : " + group.name + "\n"
+                    + "From: " + this.username + "\n"
+                    + "Time: " + now + "\n"
+                    + "Subject: " + subject + "\n"
+                    + "Group: " + group.name + "\n", others);
+        }
+
+        private void groupUsers(String name) throws GroupException {
+            Group group = getGroup(name);
+            ArrayList<String> names = new ArrayList<>();
+            synchronized (group) {
+                for (Connection member : group.members) names.add(member.username);
+            }
+            // Never an empty reply: over the text protocol it would pass for the empty frame after a post announcement,
+            // and the reply the client is waiting for would never come.
+            reply(names.isEmpty() ? "No users in " + group.name + "." : String.join("\n", names));
+        }
+
+        private void groups() {
+            StringBuilder message = new StringBuilder();
+            for (Group group : GroupServer.this.groups.values()) {
+                if (message.length() > 0) message.append('\n');
+                message.append("Group name: ").append(group.name).append(", Group ID: ").append(group.id);
+            }
+            reply(message.toString());
+        }
+
+        private void groupLeave(String name) throws GroupException {
+            Group group = getGroup(name);
+            Collection<Connection> others = leave(group);
+            reply("Successfully left '" + group.name + "'");
+            if (others != null) announce(this.username + " has left the " + group.name + " group!\n", others);
+        }
+
+        private void userGroupInfo(String name) throws GroupException {
+            Group group = getGroup(name);
+            ArrayList<String> names = new ArrayList<>();
+            int messages;
+            synchronized (group) {
+                for (Connection member : group.members) names.add(member.username);
+                messages = group.bulletin.size();
+            }
+            reply("Group: " + group.name + "\n"
+                    + "Users: [" + String.join(", ", names) + "]\n"
+                    + "Messages: " + messages + "\n"
+                    + "Cutoff: " + this.cutoffs.getOrDefault(group, -2) + "\n");
+        }
+
+        private Collection<Connection> leave(Group group) {
+            // Returns the remaining members to tell, or null if this client was not in the group.
+            synchronized (group) {
+                if (!group.members.remove(this)) return null;
+                this.cutoffs.put(group, -2);
+                return new ArrayList<>(group.members);
+            }
+        }
+
+        private void announce(String message, Collection<Connection> recipients) {
+            // Queued per recipient, so one slow client never holds up the poster or anyone else. Each encoding is
+            // built at most once however many recipients use it.
+            byte[] text = null;
+            byte[] binary = null;
+            for (Connection recipient : recipients) {
+                if (recipient == this) continue;
+                if (recipient.binary) {
+                    if (binary == null) binary = LengthFrameDecoder.encode(message, LengthFrameDecoder.TYPE_ANNOUNCEMENT);
+                    recipient.enqueueAnnouncement(binary);
+                } else {
+                    if (text == null) text = (message + "<END>").getBytes(StandardCharsets.UTF_8);
+                    recipient.enqueueAnnouncement(text);
+                }
+            }
+        }
+
+        private void reply(String message) {
+            byte[] frame = this.binary
+                    ? LengthFrameDecoder.encode(message, LengthFrameDecoder.TYPE_REPLY)
+                    : (message + "<END>").getBytes(StandardCharsets.UTF_8);
+            // Called by this client's own reader, so waiting here stops it taking more commands until the writer
+            // catches up.
+            try {
+                while (!this.replySlots.tryAcquire(1, TimeUnit.SECONDS)) {
+                    if (this.closed) return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                return;
+            }
+            if (!this.closed) this.outbound.add(new Outgoing(frame, true));
+        }
+
+        void enqueueAnnouncement(byte[] frame) {
+            if (this.closed) return;
+            if (this.queuedAnnouncements.incrementAndGet() > outboundLimit) {
+                System.err.println("Disconnecting " + this.username + ": too many frames waiting to be sent");
+                close();
+                return;
+            }
+            this.outbound.add(new Outgoing(frame, false));
+        }
+
+        void drain() {
+            // Writer side of the connection, batches whatever has queued up into as few writes as possible.
+            ArrayList<Outgoing> batch = new ArrayList<>();
+            try {
+                while (!this.closed) {
+                    Outgoing first = this.outbound.poll(1, TimeUnit.SECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                    this.outbound.drainTo(batch);
+                    int replies = 0;
+                    for (Outgoing frame : batch) {
+                        this.out.write(frame.bytes);
+                        if (frame.reply) replies++;
+                    }
+                    this.out.flush();
+                    this.replySlots.release(replies);
+                    this.queuedAnnouncements.addAndGet(replies - batch.size());
+                    batch.clear();
+                }
+            } catch (IOException | InterruptedException e) {
+                close();
+            }
+        }
+
+        private void disconnect() {
+            for (Group group : GroupServer.this.groups.values()) leave(group);
+            if (this.username != null) users.remove(this.username, this);
+            close();
+        }
+
+        void close() {
+            this.closed = true;
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                // Already closed.
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 9999;
+        GroupServer server = new GroupServer(port).start();
+        System.out.println("Group server listening on port " + server.getPort());
+        Thread.currentThread().join();
+    }
+}
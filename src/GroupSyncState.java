@@ -0,0 +1,80 @@
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+public class GroupSyncState {
+    private final String group;
+    // Highest message id whose body has arrived, and highest id already asked for (received or still in flight).
+    private int highestReceived = -1;
+    private int highestRequested = -1;
+    private final LinkedHashSet<String> members = new LinkedHashSet<>();
+    // True while the group's info has been loaded and announcements are keeping it current.
+    private boolean synced;
+
+    public GroupSyncState(String group) {
+        this.group = Names.intern(group);
+    }
+
+    public String getGroup() {
+        return this.group;
+    }
+
+    public synchronized int firstMissing(int cutoff) {
+        // Nothing before the server's cutoff is accessible, nothing up to what was already requested needs asking again.
+        return Math.max(Math.max(cutoff, 0), this.highestRequested + 1);
+    }
+
+    public synchronized void requested(int throughId) {
+        this.highestRequested = Math.max(this.highestRequested, throughId);
+    }
+
+    public synchronized boolean shouldRequest(int id) {
+        // Claims the id so a second announcement or info response for it does not fetch it again.
+        if (id <= this.highestRequested) return false;
+        this.highestRequested = id;
+        return true;
+    }
+
+    public synchronized void received(int id) {
+        this.highestReceived = Math.max(this.highestReceived, id);
+    }
+
+    public synchronized int getHighestReceived() {
+        return this.highestReceived;
+    }
+
+    public synchronized void replaceMembers(Collection<String> users) {
+        this.members.clear();
+        for (String user : users) this.members.add(Names.intern(user));
+        this.synced = true;
+    }
+
+    public synchronized boolean addMember(String user) {
+        return this.members.add(Names.intern(user));
+    }
+
+    public synchronized boolean removeMember(String user) {
+        return this.members.remove(user);
+    }
+
+    public synchronized Set<String> getMembers() {
+        return new LinkedHashSet<>(this.members);
+    }
+
+    public synchronized boolean isSynced() {
+        return this.synced;
+    }
+
+    public synchronized void resetMessages() {
+        // Forget every message id, for when the server's history turns out not to be the one we stored.
+        this.highestReceived = -1;
+        this.highestRequested = -1;
+    }
+
+    public synchronized void markStale() {
+        // After leaving the group or losing the connection the member list can no longer be trusted, and anything that
+        // was requested but never arrived has to be asked for again.
+        this.synced = false;
+        this.highestRequested = this.highestReceived;
+    }
+}
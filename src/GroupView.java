@@ -0,0 +1,65 @@
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class GroupView {
+    private final String group;
+    private final MessageListModel messages = new MessageListModel(new MessageStore());
+    private final MemberListModel members = new MemberListModel();
+
+    public GroupView(String group) {
+        this.group = Names.intern(group);
+    }
+
+    public String getGroup() {
+        return this.group;
+    }
+
+    public MessageListModel getMessages() {
+        return this.messages;
+    }
+
+    public MemberListModel getMembers() {
+        return this.members;
+    }
+
+    public void appendMessage(int id, String body) {
+        this.messages.append(id, body);
+    }
+
+    public void setMembers(Collection<String> users) {
+        this.members.replace(users);
+    }
+
+    public static class MemberListModel extends AbstractListModel<String> {
+        // Member lists are short, so a change swaps in the latest snapshot; only the newest one is ever applied.
+        private ArrayList<String> rows = new ArrayList<>();
+        private final AtomicReference<ArrayList<String>> pending = new AtomicReference<>();
+        private static final long serialVersionUID = 1L;
+
+        public void replace(Collection<String> users) {
+            if (this.pending.getAndSet(new ArrayList<>(users)) == null) SwingUtilities.invokeLater(this::flush);
+        }
+
+        private void flush() {
+            ArrayList<String> next = this.pending.getAndSet(null);
+            if (next == null) return;
+            int oldSize = this.rows.size();
+            this.rows = next;
+            if (oldSize > 0) fireIntervalRemoved(this, 0, oldSize - 1);
+            if (!next.isEmpty()) fireIntervalAdded(this, 0, next.size() - 1);
+        }
+
+        @Override
+        public int getSize() {
+            return this.rows.size();
+        }
+
+        @Override
+        public String getElementAt(int index) {
+            return this.rows.get(index);
+        }
+    }
+}
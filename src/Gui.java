@@ -1,13 +1,27 @@
 import javax.swing.*;
 import javax.swing.event.ChangeListener;
 import javax.swing.event.ChangeEvent;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Vector;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Gui {
     private JFrame frame;
@@ -17,36 +31,90 @@ public class Gui {
 
     private JMenuBar menuBar;
     private JMenu groupMenu;
-    private JCheckBoxMenuItem[] groupCheckBoxMenuItems;
-
-    public int selectedGroupIndex;
+    // Built the first time it is opened, it only ever holds the rows in view however many groups there are.
+    private JDialog groupPicker;
+    private JDialog searchDialog;
+
+    // Every group on the server; the tab, view, sync state and journal of a group only exist while it is joined.
+    private GroupDirectory directory;
+    private String selectedGroup;
+    // The group whose info was most recently received, its history is what the lists show.
+    private volatile String activeGroup;
     private JTabbedPane tabSelector;
-    private JPanel[] groupPanels;
-    private HashMap<String, Vector<String>> groupMessageDict;
-    private HashMap<String, Vector<String>> groupUserDict;
+    private final HashMap<String, JPanel> groupTabs = new HashMap<>();
+    // Written on the EDT when groups are joined or left, read by the dispatcher thread.
+    private ConcurrentHashMap<String, GroupView> groupMessageDict;
+    private ConcurrentHashMap<String, GroupSyncState> groupSyncStates;
+    // Messages received in earlier sessions, so a restart only fetches what arrived since.
+    private ConcurrentHashMap<String, MessageJournal> groupJournals;
+    // Every message of the joined groups, searchable by word. Indexing happens on its own thread, queries on
+    // searchThread, so neither ever holds up the EDT.
+    private final MessageIndex searchIndex = new MessageIndex();
+    private final ExecutorService searchThread = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "message-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Bumped on every keystroke, results of an older query are thrown away.
+    private final AtomicInteger searchGeneration = new AtomicInteger();
+    // Groups whose members changed during the current batch of events, their lists are redrawn once at its end.
+    private final Set<String> membersChanged = ConcurrentHashMap.newKeySet();
+    private SocketClient client;
+    private final EventDispatcher events = buildDispatcher();
+    // Brings the session back if the connection drops, with the same username and groups.
+    private ReconnectManager reconnects;
+    private String username;
+    private String welcome = "";
 
     private JTextField input;
     private JTextArea primaryTextArea;
-    private JTextArea userTextArea;
+    private JList<String> chatList;
+    private JList<String> userList;
+    private JScrollPane chatScrollPane;
+    private JScrollPane userScrollPane;
+    // Keeps the newest message in view as rows are added to the group being shown.
+    private final ListDataListener followNewest = new ListDataListener() {
+        @Override
+        public void intervalAdded(ListDataEvent e) {
+            chatList.ensureIndexIsVisible(e.getIndex1());
+        }
+
+        @Override
+        public void intervalRemoved(ListDataEvent e) {
+        }
+
+        @Override
+        public void contentsChanged(ListDataEvent e) {
+        }
+    };
     private JButton sendButton;
 
     public Gui(int width, int height) {
         this.width = width;
         this.height = height;
 
-        this.frame = new JFrame("");
-        this.frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        this.frame.setLayout(new BorderLayout());
-
         this.menuBar = new JMenuBar();
         this.groupMenu = new JMenu("Groups");
 
         this.menuBar.add(this.groupMenu);
-        this.frame.setJMenuBar(menuBar);
+        JMenuItem joinItem = new JMenuItem("Join group...");
+        joinItem.addActionListener(e -> showGroupPicker());
+        this.groupMenu.add(joinItem);
+        JMenuItem leaveItem = new JMenuItem("Leave this group");
+        leaveItem.addActionListener(e -> {
+            if (this.selectedGroup != null) leaveGroup(this.selectedGroup);
+        });
+        this.groupMenu.add(leaveItem);
+        JMenu searchMenu = new JMenu("Search");
+        this.menuBar.add(searchMenu);
+        JMenuItem searchItem = new JMenuItem("Find in messages...");
+        searchItem.addActionListener(e -> showSearch());
+        searchMenu.add(searchItem);
 
         this.tabSelector = new JTabbedPane();
-        this.groupMessageDict = new HashMap<String, Vector<String>>();
-        this.groupUserDict = new HashMap<String, Vector<String>>();
+        this.groupMessageDict = new ConcurrentHashMap<String, GroupView>();
+        this.groupSyncStates = new ConcurrentHashMap<String, GroupSyncState>();
+        this.groupJournals = new ConcurrentHashMap<String, MessageJournal>();
 
         this.centralPanel = new JPanel();
         this.centralPanel.setLayout(new BoxLayout(centralPanel, BoxLayout.Y_AXIS));
@@ -57,11 +125,21 @@ public class Gui {
         this.primaryTextArea.setWrapStyleWord(true);
         this.primaryTextArea.setVisible(false);
 
-        this.userTextArea = new JTextArea(3, 10);
-        this.userTextArea.setEditable(false);
-        this.userTextArea.setLineWrap(true);
-        this.userTextArea.setWrapStyleWord(true);
-        this.userTextArea.setVisible(false);
+        // Fixed cell sizes let the lists lay out and paint only the visible rows, however long the history gets.
+        this.chatList = new JList<String>();
+        this.chatList.setFixedCellHeight(this.chatList.getFontMetrics(this.chatList.getFont()).getHeight() + 2);
+        this.chatList.setFixedCellWidth(1);
+        this.chatScrollPane = new JScrollPane(this.chatList);
+        this.chatScrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+        this.chatScrollPane.setVisible(false);
+
+        this.userList = new JList<String>();
+        this.userList.setFixedCellHeight(this.chatList.getFixedCellHeight());
+        this.userList.setFixedCellWidth(1);
+        this.userList.setVisibleRowCount(4);
+        this.userScrollPane = new JScrollPane(this.userList);
+        this.userScrollPane.setVisible(false);
+
 
         this.input = new JTextField();
         this.input.setVisible(false);
@@ -70,96 +148,55 @@ public class Gui {
         this.sendButton.setVisible(false);
 
         this.centralPanel.add(this.primaryTextArea);
-        this.centralPanel.add(this.userTextArea);
+        this.centralPanel.add(this.chatScrollPane);
+        this.centralPanel.add(this.userScrollPane);
         this.centralPanel.add(Box.createRigidArea(new Dimension(0, 10)));
         this.centralPanel.add(this.input);
         this.centralPanel.add(Box.createRigidArea(new Dimension(0, 10)));
         this.centralPanel.add(this.sendButton);
         this.centralPanel.add(this.tabSelector);
 
+        // Without a display only the components are built, which is enough to drive the message handling headless.
+        if (GraphicsEnvironment.isHeadless()) return;
+        this.frame = new JFrame("");
+        this.frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        this.frame.setLayout(new BorderLayout());
+        this.frame.setJMenuBar(menuBar);
         this.frame.add(centralPanel, BorderLayout.CENTER);
     }
 
     public void startListenerThread(SocketClient client, Gui ref) {
         this.input.setVisible(true);
-        this.primaryTextArea.setVisible(true);
-        this.userTextArea.setVisible(true);
+        this.chatScrollPane.setVisible(true);
+        this.userScrollPane.setVisible(true);
         this.sendButton.setVisible(true);
 
-        Thread serverListener = new Thread(() -> {
-            // Thread to listen for announcments and display them, then continue
-            try {
-                String group = null;
-                while (true) {
-                    String serverMessage = client.readMessage();
-                    if (serverMessage == null) continue;
-                    if (serverMessage.startsWith("You have joined ")) client.sendMessage("usergroupinfo " + serverMessage.substring(16, serverMessage.indexOf("!")));
-                    else if (serverMessage.startsWith("Group: ")) {
-                        String[] parts = serverMessage.split("\n");
-                        group = parts[0].split(": ")[1].strip();
-                        String usersString = parts[1].split(": ")[1];
-                        System.out.println(serverMessage);
-                        String[] users;
-                        boolean a = false;
-                        try {
-                            users = usersString.substring(2, usersString.length() - 1).split(", ");
-                        }
-                        catch (StringIndexOutOfBoundsException e) {
-                            users = null;
-                            a = true;
-                        }
-                        int numMessages = Integer.parseInt(parts[2].split(": ")[1].strip());
-                        int cutoff = Integer.parseInt(parts[3].split(": ")[1].strip());
-                        
-                        for (int i = cutoff; i < numMessages; i++) client.sendMessage("groupmessage " + group + " " + Integer.toString(i));
-                        if (!a) {
-                            for (int i = 0; i < users.length; i++) this.groupUserDict.get(group).addElement(users[i].strip());
-                        }
-                    }
-                    else if (serverMessage.startsWith("\t") && group != null) this.groupMessageDict.get(group).add(serverMessage.strip());
-                    else if (serverMessage.contains(" has joined ") && serverMessage.endsWith("!") && group != null) {
-                        String[] parts = serverMessage.replaceAll("!", "").split(" has joined ");
-                        this.groupUserDict.get(parts[1]).addElement(parts[0]);
-                        String body = this.groupUserDict.get(group).toString().replaceAll("\\[", "").replaceAll("\\]", "").replace(",", "\n");
-                        this.userTextArea.setText(body);
-                        String chat = this.groupMessageDict.get(group).toString().replaceAll("\\[", "").replaceAll("\\]", "").replace(",", "\n");
-                        this.primaryTextArea.setText(chat);
-                    }
-                    else if (serverMessage.contains(" has left the ") && serverMessage.endsWith(" group!\n") && group != null) {
-                        String[] parts = serverMessage.replace(" group!", "").split(" has left the ");
-                        this.groupUserDict.get(parts[1]).removeElement(parts[0]);
-                        String body = this.groupUserDict.get(group).toString().replaceAll("\\[", "").replaceAll("\\]", "").replace(",", "\n");
-                        this.userTextArea.setText(body);
-                        String chat = this.groupMessageDict.get(group).toString().replaceAll("\\[", "").replaceAll("\\]", "").replace(",", "\n");
-                        this.primaryTextArea.setText(chat);
-                    }
-                    else if (serverMessage.startsWith("Message ID: ") && serverMessage.contains("From ") && group != null) {
-                        String[] parts = serverMessage.split("\n");
-                        int id = Integer.parseInt(parts[0].split(": ")[1]);
-                        String associatedGroup = parts[1].split(": ")[1];
-                        client.sendMessage("groupmessage " + associatedGroup + " " + id);
-                    }
-                    if (group != null) {
-                        String body = this.groupUserDict.get(group).toString().replaceAll("\\[", "").replaceAll("\\]", "").replace(",", "\n");
-                        this.userTextArea.setText(body);
-                        String chat = this.groupMessageDict.get(group).toString().replaceAll("\\[", "").replaceAll("\\]", "").replace(",", "\n");
-                        this.primaryTextArea.setText(chat);
-                    }
-                }
-            } catch (IOException e) {
-                System.err.println("Error reading from server: " + e.getMessage());
-            }
-        });
-        serverListener.start();
+        // The client's dispatcher thread listens for announcments and replies nobody is waiting on, and displays them
+        this.client = client;
+        // A burst of announcements the GUI cannot keep up with costs one resync per group instead of unbounded memory.
+        client.setInboundQueue(1024, EventPump.Overflow.MARK_STALE);
+        this.reconnects = new ReconnectManager(client, this.events, connectionListener()).setUsername(this.username);
+        this.reconnects.start();
         
         this.tabSelector.addChangeListener(new ChangeListener() {
             @Override
             public void stateChanged(ChangeEvent e) {
                 JTabbedPane s = (JTabbedPane) e.getSource();
-                JPanel p = (JPanel) s.getSelectedComponent();
-                for (int i = 0; i < ref.groupCheckBoxMenuItems.length; i++) if (ref.groupPanels[i] == p) ref.selectedGroupIndex = i;
+                Component p = s.getSelectedComponent();
+                // Each tab's panel is named after its group.
+                ref.selectedGroup = p == null ? null : p.getName();
+                if (ref.selectedGroup == null) return;
+                // Announcements keep a synced group current, and our own posts are fetched once they are in, so
+                // switching to it needs nothing from the server.
+                String name = ref.selectedGroup;
+                GroupSyncState state = ref.groupSyncStates.get(name);
+                if (state == null) return;
+                if (state.isSynced()) {
+                    ref.showGroup(name);
+                    return;
+                }
                 try {
-                    client.sendMessage("usergroupinfo " + Integer.toString(ref.selectedGroupIndex));
+                    client.sendMessage("usergroupinfo " + ref.directory.byName(name).id);
                 } catch (IOException d) {
                     System.err.println("Error sending message to server: " + d.getMessage());
                 }
@@ -170,74 +207,493 @@ public class Gui {
             @Override
             public void actionPerformed(ActionEvent e) {
                 String enteredMessage = ref.input.getText();
-                if (enteredMessage.isBlank()) return;
+                String group = ref.selectedGroup;
+                if (enteredMessage.isBlank() || group == null) return;
                 ref.input.setText("");
+                // The command, subject and body go out in one write so the server always sees them together. Neither
+                // server announces a post to its author, so once it is in, the group's new messages are fetched.
                 try {
-                    client.sendMessage("grouppost " + Integer.toString(ref.selectedGroupIndex));
-                } catch (IOException d) {
-                    System.err.println("Error reading from server: " + d.getMessage());
-                }
-                try {
-                    client.sendMessage("fillersubject");
-                } catch (IOException d) {
-                    System.err.println("Error sending subject to server: " + d.getMessage());
-                }
-                try {
-                    client.sendMessage(enteredMessage);
+                    List<CompletableFuture<String>> replies = client.pipeline(List.of("grouppost " + ref.directory.byName(group).id, "fillersubject", enteredMessage));
+                    replies.get(replies.size() - 1).thenAcceptAsync(reply -> {
+                        if (ProtocolParser.parse(reply) instanceof ProtocolEvent.PostAck) ref.resync(List.of(group));
+                    }, client.getEventExecutor());
                 } catch (IOException d) {
                     System.err.println("Error sending message to server: " + d.getMessage());
                 }
+            }
+        });
+    }
+
+    public void handleServerMessage(String serverMessage) {
+        // Frames that do not come through the client's dispatcher, e.g. canned ones, go through the same handlers.
+        this.events.dispatch(serverMessage);
+    }
+
+    private EventDispatcher buildDispatcher() {
+        return new EventDispatcher()
+                .on(ProtocolEvent.GroupInfo.class, info -> syncGroup(info, true))
+                .on(ProtocolEvent.MemberJoined.class, joined -> {
+                    GroupSyncState state = this.groupSyncStates.get(joined.group);
+                    if (state != null && state.addMember(joined.user)) this.membersChanged.add(joined.group);
+                })
+                .on(ProtocolEvent.MemberLeft.class, left -> {
+                    GroupSyncState state = this.groupSyncStates.get(left.group);
+                    if (state != null && state.removeMember(left.user)) this.membersChanged.add(left.group);
+                })
+                .on(ProtocolEvent.PostAnnouncement.class, post -> {
+                    GroupSyncState state = this.groupSyncStates.get(post.group);
+                    // Until a stale group has had its info again, that info is what fetches everything it is missing.
+                    if (state == null || !state.isSynced() || !state.shouldRequest(post.messageId)) return;
+                    try {
+                        this.client.request("groupmessage " + post.group + " " + post.messageId)
+                                .thenAcceptAsync(b -> appendMessage(post.group, post.messageId, b), this.client.getEventExecutor());
+                    } catch (IOException e) {
+                        System.err.println("Error sending message to server: " + e.getMessage());
+                    }
+                })
+                .onBatchEnd(this::showMemberChanges)
+                .onStale(group -> {
+                    GroupSyncState state = this.groupSyncStates.get(group);
+                    if (state == null) return;
+                    state.markStale();
+                    resync(List.of(group));
+                });
+    }
+
+    private void showMemberChanges() {
+        if (this.membersChanged.isEmpty()) return;
+        Iterator<String> groups = this.membersChanged.iterator();
+        while (groups.hasNext()) {
+            String group = groups.next();
+            groups.remove();
+            GroupSyncState state = this.groupSyncStates.get(group);
+            GroupView view = this.groupMessageDict.get(group);
+            if (state != null && view != null) view.setMembers(state.getMembers());
+        }
+    }
+
+    private ReconnectManager.Listener connectionListener() {
+        return new ReconnectManager.Listener() {
+            @Override
+            public void onConnectionLost(IOException cause) {
+                System.err.println("Lost the connection to the server: " + cause.getMessage());
+                // Whatever was in flight is gone, each group picks up from its last received message once it is back.
+                for (GroupSyncState state : groupSyncStates.values()) state.markStale();
+                setTitle("Reconnecting...");
+            }
+
+            @Override
+            public void onReconnecting(int attempt, long delayMillis) {
+                System.err.println("Reconnecting in " + delayMillis + " ms (attempt " + attempt + ")");
+            }
+
+            @Override
+            public void onReconnected(List<String> groups) {
+                setTitle(welcome);
+                resync(groups);
+            }
+
+            @Override
+            public void onGaveUp(IOException cause) {
+                System.err.println("Error reading from server: " + cause.getMessage());
+                setTitle("Disconnected");
+            }
+        };
+    }
+
+    private void resync(List<String> groups) {
+        // One write asks for every rejoined group's info, each group then fetches only what it missed. Replies are
+        // completed on the socket reader, which must not be the one writing those fetches, so they are handled with the
+        // events.
+        ArrayList<String> commands = new ArrayList<>(groups.size());
+        for (String group : groups) commands.add("usergroupinfo " + group);
+        Executor handlers = this.client.getEventExecutor();
+        try {
+            for (CompletableFuture<String> reply : this.client.pipeline(commands)) {
+                reply.thenAcceptAsync(frame -> {
+                    ProtocolEvent event = ProtocolParser.parse(frame);
+                    if (!(event instanceof ProtocolEvent.GroupInfo)) {
+                        this.events.dispatch(event);
+                        return;
+                    }
+                    ProtocolEvent.GroupInfo info = (ProtocolEvent.GroupInfo) event;
+                    syncGroup(info, info.group.equals(this.activeGroup));
+                }, handlers);
+            }
+        } catch (IOException e) {
+            System.err.println("Error sending message to server: " + e.getMessage());
+        }
+    }
 
+    private void syncGroup(ProtocolEvent.GroupInfo info, boolean show) {
+        // The member list is replaced, not appended to, and only messages we have never asked for are fetched.
+        GroupSyncState state = this.groupSyncStates.get(info.group);
+        GroupView view = this.groupMessageDict.get(info.group);
+        if (state == null || view == null) return;
+        if (info.messageCount <= state.getHighestReceived()) forgetMessages(info.group);
+        state.replaceMembers(info.members);
+        view.setMembers(info.members);
+        if (show) showGroup(info.group);
+
+        ArrayList<String> commands = new ArrayList<>();
+        int first = state.firstMissing(info.cutoff);
+        for (int i = first; i < info.messageCount; i++) commands.add("groupmessage " + info.group + " " + Integer.toString(i));
+        state.requested(info.messageCount - 1);
+
+        // Fetch the missing history in one write, the bodies come back in order.
+        Executor handlers = this.client.getEventExecutor();
+        try {
+            int id = first;
+            for (CompletableFuture<String> body : this.client.pipeline(commands)) {
+                int messageId = id++;
+                body.thenAcceptAsync(b -> appendMessage(info.group, messageId, b), handlers);
             }
+        } catch (IOException e) {
+            System.err.println("Error sending message to server: " + e.getMessage());
+        }
+    }
+
+    private void send(String command) {
+        try {
+            this.client.sendMessage(command);
+        } catch (IOException e) {
+            System.err.println("Error sending message to server: " + e.getMessage());
+        }
+    }
+
+    void appendMessage(String group, int id, String body) {
+        // Only the new row is pushed, the lists repaint once per batch on the EDT.
+        GroupView view = this.groupMessageDict.get(group);
+        GroupSyncState state = this.groupSyncStates.get(group);
+        if (view == null || state == null) return;
+        // An error (cut off, gone, no longer a member) must not be shown, kept or indexed as the message. Anything else
+        // is the body, even one that reads like an announcement, since it came back as the reply.
+        if (ProtocolParser.parse(body) instanceof ProtocolEvent.Error) return;
+        view.appendMessage(id, body.strip());
+        state.received(id);
+        this.searchIndex.add(group, id, body.strip());
+        MessageJournal journal = this.groupJournals.get(group);
+        if (journal == null) return;
+        try {
+            journal.append(id, body.strip());
+        } catch (IOException e) {
+            System.err.println("Error saving the message locally: " + e.getMessage());
+        }
+    }
+
+    private void loadJournal(String group) {
+        // Show what was stored last time straight away and mark it as received, so only newer messages are fetched.
+        if (this.client == null || this.client.getServerName() == null || this.groupJournals.containsKey(group)) return;
+        MessageJournal journal;
+        try {
+            journal = MessageJournal.open(MessageJournal.directoryFor(this.client.getServerName()), group);
+        } catch (IOException e) {
+            System.err.println("Messages from " + group + " will not be kept locally: " + e.getMessage());
+            return;
+        }
+        this.groupJournals.put(group, journal);
+        int highest = journal.highestId();
+        if (highest < 0) return;
+        // Straight into the group's store, which only keeps the newest of them if the journal outgrew its scrollback.
+        MessageListModel messages = this.groupMessageDict.get(group).getMessages();
+        journal.forEach((id, body) -> {
+            messages.append(id, body);
+            this.searchIndex.add(group, id, body);
         });
+        GroupSyncState state = this.groupSyncStates.get(group);
+        state.received(highest);
+        state.requested(highest);
+    }
+
+    private void forgetMessages(String group) {
+        // The server has fewer messages than we stored, so its history is not the one we have (e.g. it restarted).
+        GroupView view = this.groupMessageDict.get(group);
+        GroupSyncState state = this.groupSyncStates.get(group);
+        if (view != null) view.getMessages().clear();
+        if (state != null) state.resetMessages();
+        this.searchIndex.removeGroup(group);
+        MessageJournal journal = this.groupJournals.get(group);
+        if (journal != null) journal.clear();
+    }
+
+    private void showGroup(String group) {
+        // Swapping the models is all it takes to show another group, nothing is re-rendered.
+        this.activeGroup = group;
+        GroupView view = this.groupMessageDict.get(group);
+        SwingUtilities.invokeLater(() -> {
+            if (this.chatList.getModel() == view.getMessages()) return;
+            this.chatList.getModel().removeListDataListener(this.followNewest);
+            this.chatList.setModel(view.getMessages());
+            this.userList.setModel(view.getMembers());
+            view.getMessages().addListDataListener(this.followNewest);
+            int last = view.getMessages().getSize() - 1;
+            if (last >= 0) this.chatList.ensureIndexIsVisible(last);
+        });
+    }
+
+    public void closeJournals() {
+        for (MessageJournal journal : this.groupJournals.values()) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Error closing the message journal: " + e.getMessage());
+            }
+        }
+        this.groupJournals.clear();
+    }
+
+    GroupView view(String group) {
+        return this.groupMessageDict.get(group);
     }
 
     public void show() {
+        if (this.frame == null) return;
         this.frame.setSize(this.width, this.height);
         this.frame.setVisible(true);
     }
 
     public void setWelcome(String message) {
+        // Also where the username comes from, it is needed again to reconnect.
+        ProtocolEvent event = ProtocolParser.parse(message);
+        if (event instanceof ProtocolEvent.Welcome) this.username = ((ProtocolEvent.Welcome) event).username;
+        this.welcome = message;
+        if (this.frame == null) return;
         this.frame.setTitle(message);
     }
 
-    public void setGroups(ArrayList<HashMap<String, Object>> groups, SocketClient client) {
-        int size = groups.size();
-        this.groupCheckBoxMenuItems = new JCheckBoxMenuItem[size];
-        this.groupPanels = new JPanel[size];
-
-        for (int i = 0; i < groups.size(); i++) {
-            HashMap<String, Object> group = groups.get(i);
-            String name = (String) group.get("name");
-            String index = group.get("index").toString();
-            JCheckBoxMenuItem item = new JCheckBoxMenuItem(index + ": " + name);
-            this.groupCheckBoxMenuItems[i] = item;
-            this.groupMenu.add(item);
-
-            JPanel panel = new JPanel();
-            panel.setVisible(false);
-            this.groupPanels[i] = panel;
-            this.groupMessageDict.put(name.strip(), new Vector<String>());
-            this.groupUserDict.put(name.strip(), new Vector<String>());
-
-            item.addActionListener(new ActionListener() {
-                @Override
-                public void actionPerformed(ActionEvent e) {
-                    // If we get to this point in code some change was made to the menu and we need to update displayed tabs.
-                    try {
-                        if (item.isSelected()) {
-                            tabSelector.add(index + ": " + name, panel);
-                            client.sendMessage("groupjoin " + index);
-                        }
-                        else {
-                            tabSelector.remove(panel);
-                            client.sendMessage("groupleave " + index);
-                        }
-                    } catch (IOException d) {
-                        System.err.println("Error sending server group change. " + d.getMessage());
-                    }
-                }
+    private void setTitle(String title) {
+        if (this.frame == null) return;
+        SwingUtilities.invokeLater(() -> this.frame.setTitle(title));
+    }
+
+    public void setGroups(GroupDirectory directory, SocketClient client) {
+        // Nothing is built per group here, that waits until one is joined.
+        this.client = client;
+        this.directory = directory;
+    }
+
+    void openGroup(String group) {
+        // Creates what a joined group needs, before the join is sent so its replies find it.
+        this.groupMessageDict.computeIfAbsent(group, GroupView::new);
+        this.groupSyncStates.computeIfAbsent(group, GroupSyncState::new);
+        loadJournal(group);
+    }
+
+    void closeGroup(String group) {
+        this.groupMessageDict.remove(group);
+        this.groupSyncStates.remove(group);
+        this.searchIndex.removeGroup(group);
+        MessageJournal journal = this.groupJournals.remove(group);
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.println("Error closing the message journal: " + e.getMessage());
+        }
+    }
+
+    private void joinGroup(GroupDirectory.Group group) {
+        // On the EDT, from the picker.
+        JPanel tab = this.groupTabs.get(group.name);
+        if (tab != null) {
+            this.tabSelector.setSelectedComponent(tab);
+            return;
+        }
+        openGroup(group.name);
+        // Joined before the tab exists, selecting the tab asks for the group's info. That is the only time it is asked
+        // for, the join's reply needs no answer.
+        send("groupjoin " + group.id);
+        tab = new JPanel();
+        tab.setName(group.name);
+        tab.setVisible(false);
+        this.groupTabs.put(group.name, tab);
+        this.tabSelector.add(group.toString(), tab);
+        this.tabSelector.setSelectedComponent(tab);
+    }
+
+    private void leaveGroup(String name) {
+        JPanel tab = this.groupTabs.remove(name);
+        if (tab == null) return;
+        this.tabSelector.remove(tab);
+        closeGroup(name);
+        send("groupleave " + this.directory.byName(name).id);
+    }
+
+    private void showGroupPicker() {
+        if (this.directory == null || this.frame == null) return;
+        if (this.groupPicker == null) this.groupPicker = buildGroupPicker();
+        this.groupPicker.setLocationRelativeTo(this.frame);
+        this.groupPicker.setVisible(true);
+    }
+
+    private JDialog buildGroupPicker() {
+        // A filter box over a list of matches. The list model only wraps the current matches and the list has a fixed
+        // cell height, so only the visible rows are ever rendered.
+        JDialog dialog = new JDialog(this.frame, "Join a group", false);
+        JTextField filter = new JTextField();
+        GroupListModel matches = new GroupListModel();
+        matches.setGroups(this.directory.all());
+        JList<GroupDirectory.Group> list = new JList<>(matches);
+        list.setFixedCellHeight(this.chatList.getFixedCellHeight());
+        list.setPrototypeCellValue(new GroupDirectory.Group(Integer.MAX_VALUE, "a fairly long group name"));
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+
+        Runnable join = () -> {
+            GroupDirectory.Group group = list.getSelectedValue();
+            if (group == null && matches.getSize() > 0) group = matches.getElementAt(0);
+            if (group == null) return;
+            joinGroup(group);
+            dialog.setVisible(false);
+        };
+        filter.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                matches.setGroups(directory.search(filter.getText(), Integer.MAX_VALUE));
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                matches.setGroups(directory.search(filter.getText(), Integer.MAX_VALUE));
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        filter.addActionListener(e -> join.run());
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) join.run();
+            }
+        });
+
+        dialog.setLayout(new BorderLayout());
+        dialog.add(filter, BorderLayout.NORTH);
+        dialog.add(new JScrollPane(list), BorderLayout.CENTER);
+        dialog.setSize(320, 400);
+        return dialog;
+    }
+
+    private void showSearch() {
+        if (this.frame == null) return;
+        if (this.searchDialog == null) this.searchDialog = buildSearchDialog();
+        this.searchDialog.setLocationRelativeTo(this.frame);
+        this.searchDialog.setVisible(true);
+    }
+
+    private JDialog buildSearchDialog() {
+        // Searches as you type, the word being typed matching as a prefix. Choosing a hit shows its group.
+        JDialog dialog = new JDialog(this.frame, "Find in messages", false);
+        JTextField query = new JTextField();
+        JList<SearchHit> list = new JList<>();
+        list.setFixedCellHeight(this.chatList.getFixedCellHeight());
+        list.setFixedCellWidth(1);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+
+        Runnable show = () -> {
+            SearchHit hit = list.getSelectedValue();
+            if (hit == null && list.getModel().getSize() > 0) hit = list.getModel().getElementAt(0);
+            if (hit == null) return;
+            JPanel tab = this.groupTabs.get(hit.hit.group);
+            if (tab == null) return;
+            this.tabSelector.setSelectedComponent(tab);
+            // Selecting the tab swaps the models in a later EDT turn, the message is scrolled to after that.
+            GroupView view = this.groupMessageDict.get(hit.hit.group);
+            int messageId = hit.hit.messageId;
+            SwingUtilities.invokeLater(() -> {
+                if (view == null || this.chatList.getModel() != view.getMessages()) return;
+                int index = view.getMessages().indexOf(messageId);
+                if (index < 0) return;
+                this.chatList.setSelectedIndex(index);
+                this.chatList.ensureIndexIsVisible(index);
             });
+        };
+        query.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                search(query.getText(), list);
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                search(query.getText(), list);
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        query.addActionListener(e -> show.run());
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) show.run();
+            }
+        });
+
+        dialog.setLayout(new BorderLayout());
+        dialog.add(query, BorderLayout.NORTH);
+        dialog.add(new JScrollPane(list), BorderLayout.CENTER);
+        dialog.setSize(480, 400);
+        return dialog;
+    }
+
+    private void search(String text, JList<SearchHit> list) {
+        int generation = this.searchGeneration.incrementAndGet();
+        String query = text.isBlank() || Character.isWhitespace(text.charAt(text.length() - 1)) || text.endsWith("*") ? text : text + "*";
+        this.searchThread.execute(() -> {
+            if (generation != this.searchGeneration.get()) return;
+            // Bodies are read here too, the EDT only swaps in the finished rows. Ones that fell out of the scrollback
+            // come from the journal.
+            ArrayList<SearchHit> hits = new ArrayList<>();
+            for (MessageIndex.Hit hit : this.searchIndex.search(query, 200)) {
+                GroupView view = this.groupMessageDict.get(hit.group);
+                MessageJournal journal = this.groupJournals.get(hit.group);
+                String body = view == null ? null : view.getMessages().getStore().bodyOf(hit.messageId);
+                if (body == null && journal != null) body = journal.read(hit.messageId);
+                hits.add(new SearchHit(hit, body));
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (generation == this.searchGeneration.get()) list.setListData(hits.toArray(new SearchHit[0]));
+            });
+        });
+    }
+
+    private static class SearchHit {
+        final MessageIndex.Hit hit;
+        final String text;
+
+        SearchHit(MessageIndex.Hit hit, String body) {
+            this.hit = hit;
+            this.text = body == null ? hit.toString() : hit + ": " + body.replace('\n', ' ');
+        }
+
+        @Override
+        public String toString() {
+            return this.text;
+        }
+    }
+
+    private static class GroupListModel extends AbstractListModel<GroupDirectory.Group> {
+        private List<GroupDirectory.Group> groups = List.of();
+        private static final long serialVersionUID = 1L;
+
+        void setGroups(List<GroupDirectory.Group> groups) {
+            int oldSize = this.groups.size();
+            this.groups = groups;
+            if (oldSize > 0) fireIntervalRemoved(this, 0, oldSize - 1);
+            if (!groups.isEmpty()) fireIntervalAdded(this, 0, groups.size() - 1);
+        }
+
+        @Override
+        public int getSize() {
+            return this.groups.size();
+        }
+
+        @Override
+        public GroupDirectory.Group getElementAt(int index) {
+            return this.groups.get(index);
         }
     }
 
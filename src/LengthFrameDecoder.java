@@ -0,0 +1,108 @@
+import java.nio.charset.StandardCharsets;
+
+public class LengthFrameDecoder implements FrameSource {
+    // Wire format: 4-byte big-endian payload length, 1-byte frame type, then the UTF-8 payload. No delimiter, so the
+    // payload may contain anything, including "<END>" and newlines.
+    public static final int HEADER_BYTES = 5;
+    public static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
+    public static final byte TYPE_REPLY = 0;
+    public static final byte TYPE_ANNOUNCEMENT = 1;
+    public static final byte TYPE_COMMAND = 2;
+
+    // A server that supports this framing appends this line to its first username prompt; a client that wants it
+    // answers with NEGOTIATE on its own line and both sides switch before the username is sent.
+    public static final String CAPABILITY = "\n#caps: binary";
+    public static final String NEGOTIATE = "#binary";
+
+    private final FrameQueue frames = new FrameQueue();
+    private final byte[] header = new byte[HEADER_BYTES];
+    private int headerFilled;
+    // Sized from the header, so large frames are copied straight into place without growing or scanning.
+    private byte[] payload;
+    private int payloadFilled;
+
+    @Override
+    public void feed(byte[] data, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            if (this.payload == null) {
+                int take = Math.min(HEADER_BYTES - this.headerFilled, end - offset);
+                System.arraycopy(data, offset, this.header, this.headerFilled, take);
+                this.headerFilled += take;
+                offset += take;
+                if (this.headerFilled < HEADER_BYTES) return;
+
+                int size = payloadLength();
+                if (size < 0 || size > MAX_FRAME_BYTES) throw new IllegalStateException("Invalid frame length " + size);
+                if (end - offset >= size) {
+                    // The whole payload is already here, decode it where it is.
+                    this.frames.add(new String(data, offset, size, StandardCharsets.UTF_8), this.header[4]);
+                    offset += size;
+                    this.headerFilled = 0;
+                    continue;
+                }
+                this.payload = new byte[size];
+                this.payloadFilled = 0;
+            }
+            int take = Math.min(this.payload.length - this.payloadFilled, end - offset);
+            System.arraycopy(data, offset, this.payload, this.payloadFilled, take);
+            this.payloadFilled += take;
+            offset += take;
+            if (this.payloadFilled == this.payload.length) {
+                this.frames.add(new String(this.payload, StandardCharsets.UTF_8), this.header[4]);
+                this.payload = null;
+                this.headerFilled = 0;
+            }
+        }
+    }
+
+    private int payloadLength() {
+        return readLength(this.header, 0);
+    }
+
+    static int readLength(byte[] source, int offset) {
+        return ((source[offset] & 0xff) << 24) | ((source[offset + 1] & 0xff) << 16) | ((source[offset + 2] & 0xff) << 8) | (source[offset + 3] & 0xff);
+    }
+
+    @Override
+    public String poll() {
+        return this.frames.poll();
+    }
+
+    @Override
+    public byte lastType() {
+        return this.frames.lastType();
+    }
+
+    @Override
+    public int queued() {
+        return this.frames.size();
+    }
+
+    @Override
+    public boolean hasFrame() {
+        return this.frames.size() > 0;
+    }
+
+    @Override
+    public int pendingBytes() {
+        return this.payload == null ? this.headerFilled : HEADER_BYTES + this.payloadFilled;
+    }
+
+    public static byte[] encode(String message, byte type) {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[HEADER_BYTES + body.length];
+        writeHeader(frame, 0, body.length, type);
+        System.arraycopy(body, 0, frame, HEADER_BYTES, body.length);
+        return frame;
+    }
+
+    static void writeHeader(byte[] target, int offset, int length, byte type) {
+        target[offset] = (byte) (length >>> 24);
+        target[offset + 1] = (byte) (length >>> 16);
+        target[offset + 2] = (byte) (length >>> 8);
+        target[offset + 3] = (byte) length;
+        target[offset + 4] = type;
+    }
+}
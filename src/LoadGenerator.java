@@ -0,0 +1,326 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+public class LoadGenerator {
+    static final String[] COMMANDS = {"groupjoin", "grouppost", "groupmessage", "usergroupinfo", "groupleave"};
+
+    private final String ip;
+    private final int port;
+    private final int users;
+    private final int durationSeconds;
+    private final double ratePerUser;
+    private final int[] weights;
+    private final boolean useNio;
+
+    private final Map<String, LatencyHistogram> commandLatency = new LinkedHashMap<>();
+    private final LatencyHistogram fanOutLatency = new LatencyHistogram();
+    private final LongAdder operations = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder announcements = new LongAdder();
+    private final CountDownLatch go = new CountDownLatch(1);
+    private volatile boolean running = true;
+
+    public LoadGenerator(String ip, int port, int users, int durationSeconds, double ratePerUser, int[] weights, boolean useNio) {
+        this.ip = ip;
+        this.port = port;
+        this.users = users;
+        this.durationSeconds = durationSeconds;
+        this.ratePerUser = ratePerUser;
+        this.weights = weights;
+        this.useNio = useNio;
+        for (String command : COMMANDS) this.commandLatency.put(command, new LatencyHistogram());
+    }
+
+    public String run() throws InterruptedException {
+        NioTransport transport = this.useNio ? new NioTransport(Math.max(1, Runtime.getRuntime().availableProcessors() / 2)) : null;
+        ArrayList<SimulatedUser> simulated = new ArrayList<>();
+        CountDownLatch ready = new CountDownLatch(this.users);
+        String runId = Long.toString(System.currentTimeMillis() % 100000, 36);
+
+        for (int i = 0; i < this.users; i++) {
+            SimulatedUser user = new SimulatedUser("load-" + runId + "-" + i, i, transport, ready);
+            simulated.add(user);
+            user.start();
+        }
+        ready.await();
+
+        // Only measure once every user has finished its handshake.
+        for (LatencyHistogram histogram : this.commandLatency.values()) histogram.reset();
+        this.fanOutLatency.reset();
+        this.operations.reset();
+        this.announcements.reset();
+        long started = System.nanoTime();
+        this.go.countDown();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(this.durationSeconds));
+        this.running = false;
+        long elapsed = System.nanoTime() - started;
+
+        for (SimulatedUser user : simulated) user.join(2000);
+        for (SimulatedUser user : simulated) {
+            if (user.client != null) user.client.close();
+        }
+        if (transport != null) transport.close();
+        return report(elapsed);
+    }
+
+    private String report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append(String.format(Locale.ROOT, "  \"server\": \"%s:%d\",\n", this.ip, this.port));
+        json.append(String.format(Locale.ROOT, "  \"users\": %d,\n", this.users));
+        json.append(String.format(Locale.ROOT, "  \"transport\": \"%s\",\n", this.useNio ? "nio" : "blocking"));
+        json.append(String.format(Locale.ROOT, "  \"ratePerUser\": %.3f,\n", this.ratePerUser));
+        json.append(String.format(Locale.ROOT, "  \"durationSeconds\": %.3f,\n", seconds));
+        json.append(String.format(Locale.ROOT, "  \"operations\": %d,\n", this.operations.sum()));
+        json.append(String.format(Locale.ROOT, "  \"throughputOpsPerSecond\": %.3f,\n", this.operations.sum() / seconds));
+        json.append(String.format(Locale.ROOT, "  \"errors\": %d,\n", this.errors.sum()));
+        json.append(String.format(Locale.ROOT, "  \"announcements\": %d,\n", this.announcements.sum()));
+        json.append("  \"commands\": {\n");
+        int i = 0;
+        for (Map.Entry<String, LatencyHistogram> entry : this.commandLatency.entrySet()) {
+            json.append("    \"").append(entry.getKey()).append("\": ").append(entry.getValue().toJson());
+            json.append(++i < this.commandLatency.size() ? ",\n" : "\n");
+        }
+        json.append("  },\n");
+        json.append("  \"announcementFanOut\": ").append(this.fanOutLatency.toJson()).append("\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private class SimulatedUser extends Thread {
+        private final String username;
+        private final NioTransport transport;
+        private final CountDownLatch ready;
+        private final Random random;
+        private final LinkedBlockingQueue<String> replies = new LinkedBlockingQueue<>();
+        private final HashMap<Integer, Boolean> joined = new HashMap<>();
+        private SocketClient client;
+        private int groupCount = 1;
+
+        SimulatedUser(String username, int index, NioTransport transport, CountDownLatch ready) {
+            super("load-user-" + index);
+            this.username = username;
+            this.transport = transport;
+            this.ready = ready;
+            this.random = new Random(index * 31L + 7);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                connect();
+            } catch (IOException e) {
+                System.err.println(this.username + " could not connect: " + e.getMessage());
+                errors.increment();
+                this.ready.countDown();
+                return;
+            }
+            this.ready.countDown();
+            try {
+                go.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long interval = ratePerUser > 0 ? (long) (1e9 / ratePerUser) : 0;
+            long next = System.nanoTime();
+            while (running) {
+                try {
+                    perform(pickCommand());
+                    operations.increment();
+                } catch (IOException e) {
+                    errors.increment();
+                    return;
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (interval > 0) {
+                    // Pace against a fixed schedule so slow replies do not silently lower the offered load.
+                    next += interval;
+                    long sleep = next - System.nanoTime();
+                    if (sleep > 0) LockSupport.parkNanos(sleep);
+                }
+            }
+        }
+
+        private void connect() throws IOException {
+            if (this.transport != null) {
+                this.client = new SocketClient(this.transport, ip, port, new NioSession.FrameListener() {
+                    @Override
+                    public void onFrame(NioSession session, String frame) {
+                        received(frame);
+                    }
+                });
+            } else {
+                this.client = new SocketClient(ip, port, false);
+                Thread reader = new Thread(() -> {
+                    try {
+                        while (true) received(this.client.readMessage());
+                    } catch (IOException e) {
+                        // The run is over or the server went away, the driver thread notices on its next command.
+                    }
+                }, getName() + "-reader");
+                reader.setDaemon(true);
+                reader.start();
+            }
+            // Same handshake as the interactive clients: prompt, username, welcome, then the group list.
+            await();
+            this.client.sendMessage(this.username);
+            String welcome = await();
+            if (!welcome.startsWith("Welcome")) throw new IOException("Handshake rejected: " + welcome.strip());
+            this.client.sendMessage("groups");
+            this.groupCount = Math.max(1, GroupDirectory.parse(await()).size());
+        }
+
+        private void received(String frame) {
+            ProtocolEvent event = ProtocolParser.parse(frame);
+            if (!event.isAnnouncement()) {
+                this.replies.add(frame);
+                return;
+            }
+            // The server terminates post announcements twice, the empty frame in between carries nothing.
+            if (event instanceof ProtocolEvent.Empty) return;
+            announcements.increment();
+            // Posts made by this tool carry their send time in the subject line.
+            if (event instanceof ProtocolEvent.PostAnnouncement) {
+                String subject = ((ProtocolEvent.PostAnnouncement) event).subject;
+                if (!subject.startsWith("t=")) return;
+                try {
+                    fanOutLatency.record(System.nanoTime() - Long.parseLong(subject.substring(2).strip()));
+                } catch (NumberFormatException e) {
+                    // Someone else's post, nothing to measure.
+                }
+            }
+        }
+
+        private String await() throws IOException {
+            try {
+                String reply = this.replies.poll(10, TimeUnit.SECONDS);
+                if (reply == null) throw new IOException("Timed out waiting for the server");
+                return reply;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted");
+            }
+        }
+
+        private String pickCommand() {
+            int total = 0;
+            for (int weight : weights) total += weight;
+            int roll = this.random.nextInt(Math.max(1, total));
+            for (int i = 0; i < weights.length; i++) {
+                roll -= weights[i];
+                if (roll < 0) return COMMANDS[i];
+            }
+            return COMMANDS[0];
+        }
+
+        private void perform(String command) throws IOException, InterruptedException {
+            int group = this.random.nextInt(this.groupCount);
+            if ((command.equals("grouppost") || command.equals("groupmessage")) && !this.joined.getOrDefault(group, false)) {
+                // Posting or reading a group we are not in only measures the error path.
+                command = "groupjoin";
+            }
+            long start = System.nanoTime();
+            switch (command) {
+                case "grouppost":
+                    // Like the GUI: command, subject and body in one write, then the three replies.
+                    this.client.sendBatch(List.of("grouppost " + group, "t=" + System.nanoTime(), "load message from " + this.username));
+                    await();
+                    await();
+                    await();
+                    break;
+                case "groupmessage":
+                    this.client.sendMessage("groupmessage " + group + " " + this.random.nextInt(4));
+                    await();
+                    break;
+                case "groupjoin":
+                    this.client.sendMessage("groupjoin " + group);
+                    await();
+                    this.joined.put(group, true);
+                    break;
+                case "groupleave":
+                    this.client.sendMessage("groupleave " + group);
+                    await();
+                    this.joined.put(group, false);
+                    break;
+                default:
+                    this.client.sendMessage("usergroupinfo " + group);
+                    await();
+            }
+            commandLatency.get(command).record(System.nanoTime() - start);
+        }
+    }
+
+    static int[] parseMix(String mix) {
+        // Format: groupjoin=1,grouppost=3,... with short names allowed (join, post, message, info, leave).
+        int[] weights = {1, 2, 4, 2, 1};
+        for (String part : mix.split(",")) {
+            String[] pair = part.split("=");
+            if (pair.length != 2) throw new IllegalArgumentException("Bad mix entry: " + part);
+            String name = pair[0].strip().toLowerCase(Locale.ROOT);
+            boolean found = false;
+            for (int i = 0; i < COMMANDS.length; i++) {
+                if (COMMANDS[i].equals(name) || COMMANDS[i].endsWith(name)) {
+                    weights[i] = Integer.parseInt(pair[1].strip());
+                    found = true;
+                }
+            }
+            if (!found) throw new IllegalArgumentException("Unknown command in mix: " + name);
+        }
+        return weights;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String ip = "localhost";
+        int port = 9999;
+        int users = 10;
+        int duration = 10;
+        double rate = 5;
+        int[] weights = parseMix("join=1");
+        boolean nio = false;
+        String output = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--host": ip = args[++i]; break;
+                case "--port": port = Integer.parseInt(args[++i]); break;
+                case "--users": users = Integer.parseInt(args[++i]); break;
+                case "--duration": duration = Integer.parseInt(args[++i]); break;
+                case "--rate": rate = Double.parseDouble(args[++i]); break;
+                case "--mix": weights = parseMix(args[++i]); break;
+                case "--nio": nio = true; break;
+                case "--out": output = args[++i]; break;
+                default:
+                    System.err.println("Usage: LoadGenerator [--host h] [--port p] [--users n] [--duration s] [--rate ops/s per user]"
+                            + " [--mix join=1,post=2,message=4,info=2,leave=1] [--nio] [--out report.json]");
+                    System.exit(2);
+            }
+        }
+
+        String report = new LoadGenerator(ip, port, users, duration, rate, weights, nio).run();
+        if (output == null) {
+            System.out.print(report);
+        } else {
+            try (PrintWriter writer = new PrintWriter(new FileWriter(output))) {
+                writer.print(report);
+            }
+            System.out.println("Report written to " + output);
+        }
+    }
+}
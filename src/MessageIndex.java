@@ -0,0 +1,372 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class MessageIndex {
+    // Inverted index over message bodies: every term maps to the messages containing it, in the order they were added.
+    // Updates are queued and applied by one indexer thread, in batches under the write lock, so whoever hands a
+    // message over (the reader thread, the EDT loading a journal) never pays for tokenizing it. Queries run on the
+    // caller's thread under the read lock. Each group keeps its newest messages up to the scrollback limit, older ones
+    // are deleted and their postings compacted away once they make up half the index.
+    private static final int MAX_TERM_LENGTH = 40;
+    private static final int BATCH = 1024;
+
+    public static final class Hit {
+        public final String group;
+        public final int messageId;
+        public final double score;
+
+        Hit(String group, int messageId, double score) {
+            this.group = group;
+            this.messageId = messageId;
+            this.score = score;
+        }
+
+        @Override
+        public String toString() {
+            return this.group + " #" + this.messageId;
+        }
+    }
+
+    private static final class Postings {
+        // Ascending document numbers, each with how often the term occurs in it.
+        int[] docs = new int[4];
+        int[] counts = new int[4];
+        int size;
+
+        void add(int doc, int count) {
+            if (this.size == this.docs.length) {
+                this.docs = Arrays.copyOf(this.docs, this.size * 2);
+                this.counts = Arrays.copyOf(this.counts, this.size * 2);
+            }
+            this.docs[this.size] = doc;
+            this.counts[this.size] = count;
+            this.size++;
+        }
+
+        boolean renumber(int[] renumbered) {
+            // Drops deleted documents (renumbered to -1) and renumbers the rest, false if none are left.
+            int kept = 0;
+            for (int i = 0; i < this.size; i++) {
+                int doc = renumbered[this.docs[i]];
+                if (doc < 0) continue;
+                this.docs[kept] = doc;
+                this.counts[kept] = this.counts[i];
+                kept++;
+            }
+            this.size = kept;
+            if (kept > 0 && kept * 4 < this.docs.length) {
+                this.docs = Arrays.copyOf(this.docs, Math.max(kept * 2, 4));
+                this.counts = Arrays.copyOf(this.counts, this.docs.length);
+            }
+            return kept > 0;
+        }
+    }
+
+    private static final class GroupDocs {
+        // Message id - base -> document number + 1, so a message that arrives twice is only indexed once. Only ids
+        // from oldest to newest can be indexed, the window slides up as old messages are evicted.
+        int[] docs = new int[16];
+        int base;
+        int oldest;
+        int newest;
+        int live;
+
+        int get(int id) {
+            int slot = id - this.base;
+            return slot < 0 || slot >= this.docs.length ? 0 : this.docs[slot];
+        }
+
+        void put(int id, int doc) {
+            if (this.live == 0) {
+                this.base = id;
+                this.oldest = id;
+                this.newest = id;
+            }
+            int low = Math.min(this.oldest, id);
+            int high = Math.max(this.newest, id);
+            if (low < this.base || high - this.base >= this.docs.length) {
+                // Move the window to start at the oldest message, growing it only if the messages kept do not fit.
+                int span = high - low + 1;
+                int[] moved = span <= this.docs.length ? this.docs : new int[Math.max(this.docs.length * 2, span)];
+                System.arraycopy(this.docs, this.oldest - this.base, moved, this.oldest - low, this.newest - this.oldest + 1);
+                if (moved == this.docs) {
+                    Arrays.fill(moved, 0, this.oldest - low, 0);
+                    Arrays.fill(moved, this.newest - low + 1, moved.length, 0);
+                }
+                this.docs = moved;
+                this.base = low;
+            }
+            this.oldest = low;
+            this.newest = high;
+            this.docs[id - this.base] = doc + 1;
+            this.live++;
+        }
+
+        int oldestId() {
+            // Skips the evicted slots at the bottom of the window.
+            while (this.docs[this.oldest - this.base] == 0) this.oldest++;
+            return this.oldest;
+        }
+
+        int evictOldest() {
+            int slot = oldestId() - this.base;
+            int doc = this.docs[slot] - 1;
+            this.docs[slot] = 0;
+            this.oldest++;
+            this.live--;
+            return doc;
+        }
+
+        void renumber(int[] renumbered) {
+            for (int i = 0; i < this.docs.length; i++) {
+                if (this.docs[i] != 0) this.docs[i] = renumbered[this.docs[i] - 1] + 1;
+            }
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    // Document number -> group number and message id.
+    private int[] docGroups = new int[1024];
+    private int[] docMessages = new int[1024];
+    private int docCount;
+    // Documents of removed groups and evicted messages; their postings stay until the next compaction.
+    private final BitSet deleted = new BitSet();
+    private int deletedCount;
+    private final ArrayList<String> groups = new ArrayList<>();
+    private final HashMap<String, Integer> groupNumbers = new HashMap<>();
+    private final ArrayList<GroupDocs> groupDocs = new ArrayList<>();
+    private final int maxPerGroup;
+
+    private final LinkedBlockingQueue<Runnable> updates = new LinkedBlockingQueue<>();
+
+    public MessageIndex() {
+        this(MessageStore.DEFAULT_MAX_MESSAGES);
+    }
+
+    public MessageIndex(int maxPerGroup) {
+        this.maxPerGroup = Math.max(maxPerGroup, 1);
+        Thread indexer = new Thread(this::applyUpdates, "message-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    public void add(String group, int messageId, String body) {
+        this.updates.add(() -> index(group, messageId, body));
+    }
+
+    public void removeGroup(String group) {
+        // After leaving a group or finding the server's history replaced, its messages stop matching.
+        this.updates.add(() -> remove(group));
+    }
+
+    public void flush() throws InterruptedException {
+        // Waits until everything handed over so far can be found.
+        CountDownLatch done = new CountDownLatch(1);
+        this.updates.add(done::countDown);
+        done.await();
+    }
+
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.docCount - this.deletedCount;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private void applyUpdates() {
+        ArrayList<Runnable> batch = new ArrayList<>(BATCH);
+        while (true) {
+            try {
+                batch.add(this.updates.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            this.updates.drainTo(batch, BATCH - 1);
+            this.lock.writeLock().lock();
+            try {
+                for (Runnable update : batch) update.run();
+                if (this.deletedCount > 0 && this.deletedCount * 2 >= this.docCount) compact();
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+            batch.clear();
+        }
+    }
+
+    private void index(String group, int messageId, String body) {
+        if (messageId < 0) return;
+        int groupNumber = groupNumber(group);
+        GroupDocs docs = this.groupDocs.get(groupNumber);
+        if (docs.get(messageId) != 0) return;
+        // A full group only takes messages newer than its oldest one, which then makes room.
+        if (docs.live >= this.maxPerGroup) {
+            if (messageId < docs.oldestId()) return;
+            this.deleted.set(docs.evictOldest());
+            this.deletedCount++;
+        }
+
+        int doc = this.docCount++;
+        if (doc == this.docGroups.length) {
+            this.docGroups = Arrays.copyOf(this.docGroups, doc * 2);
+            this.docMessages = Arrays.copyOf(this.docMessages, doc * 2);
+        }
+        this.docGroups[doc] = groupNumber;
+        this.docMessages[doc] = messageId;
+        docs.put(messageId, doc);
+
+        HashMap<String, Integer> counts = new HashMap<>();
+        for (String term : tokens(body)) counts.merge(term, 1, Integer::sum);
+        counts.forEach((term, count) -> this.terms.computeIfAbsent(term, t -> new Postings()).add(doc, count));
+    }
+
+    private int groupNumber(String group) {
+        Integer number = this.groupNumbers.get(group);
+        if (number != null) return number;
+        this.groups.add(group);
+        this.groupDocs.add(new GroupDocs());
+        this.groupNumbers.put(group, this.groups.size() - 1);
+        return this.groups.size() - 1;
+    }
+
+    private void remove(String group) {
+        Integer number = this.groupNumbers.get(group);
+        if (number == null) return;
+        for (int doc : this.groupDocs.get(number).docs) {
+            if (doc == 0) continue;
+            this.deleted.set(doc - 1);
+            this.deletedCount++;
+        }
+        this.groupDocs.set(number, new GroupDocs());
+    }
+
+    private void compact() {
+        // Renumbers the documents still indexed, in their order, and drops whatever only deleted ones used, so the
+        // index stays the size of the messages it keeps rather than of every message it was ever given.
+        int[] renumbered = new int[this.docCount];
+        int kept = 0;
+        for (int doc = 0; doc < this.docCount; doc++) {
+            if (this.deleted.get(doc)) {
+                renumbered[doc] = -1;
+                continue;
+            }
+            renumbered[doc] = kept;
+            this.docGroups[kept] = this.docGroups[doc];
+            this.docMessages[kept] = this.docMessages[doc];
+            kept++;
+        }
+        Iterator<Postings> postings = this.terms.values().iterator();
+        while (postings.hasNext()) {
+            if (!postings.next().renumber(renumbered)) postings.remove();
+        }
+        for (GroupDocs docs : this.groupDocs) docs.renumber(renumbered);
+        if (kept * 4 < this.docGroups.length && this.docGroups.length > 1024) {
+            this.docGroups = Arrays.copyOf(this.docGroups, Math.max(kept * 2, 1024));
+            this.docMessages = Arrays.copyOf(this.docMessages, this.docGroups.length);
+        }
+        this.docCount = kept;
+        this.deleted.clear();
+        this.deletedCount = 0;
+    }
+
+    static List<String> tokens(String text) {
+        // Lower-cased runs of letters and digits, anything else separates them. Very long runs are cut short.
+        ArrayList<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (token.length() < MAX_TERM_LENGTH) token.append(Character.toLowerCase(c));
+            } else if (token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        return tokens;
+    }
+
+    public List<Hit> search(String query, int limit) {
+        // Every word has to match, a word ending in * matches every term it starts. Hits are ranked by how rare and
+        // how frequent their matching terms are, prefix matches counting for less the more they add; ties go to the
+        // newest message.
+        ArrayList<String> words = new ArrayList<>();
+        ArrayList<Boolean> prefixes = new ArrayList<>();
+        for (String part : query.strip().split("\\s+")) {
+            boolean prefix = part.endsWith("*");
+            for (String token : tokens(part)) {
+                words.add(token);
+                prefixes.add(false);
+            }
+            if (prefix && !words.isEmpty()) prefixes.set(prefixes.size() - 1, true);
+        }
+        if (words.isEmpty() || limit <= 0) return List.of();
+
+        this.lock.readLock().lock();
+        try {
+            ArrayList<Collection<String>> matches = new ArrayList<>(words.size());
+            BitSet result = null;
+            for (int i = 0; i < words.size(); i++) {
+                Collection<String> matching = matchingTerms(words.get(i), prefixes.get(i));
+                if (matching.isEmpty()) return List.of();
+                matches.add(matching);
+                BitSet docs = new BitSet(this.docCount);
+                for (String term : matching) {
+                    Postings postings = this.terms.get(term);
+                    for (int j = 0; j < postings.size; j++) docs.set(postings.docs[j]);
+                }
+                if (result == null) result = docs;
+                else result.and(docs);
+            }
+            result.andNot(this.deleted);
+            if (result.isEmpty()) return List.of();
+
+            double[] scores = new double[this.docCount];
+            double documents = this.docCount - this.deletedCount;
+            for (int i = 0; i < words.size(); i++) {
+                for (String term : matches.get(i)) {
+                    Postings postings = this.terms.get(term);
+                    double weight = Math.log(1 + documents / postings.size) * words.get(i).length() / term.length();
+                    for (int j = 0; j < postings.size; j++) {
+                        int doc = postings.docs[j];
+                        int count = postings.counts[j];
+                        if (result.get(doc)) scores[doc] += count == 1 ? weight : weight * (1 + Math.log(count));
+                    }
+                }
+            }
+
+            // Keep the best `limit` in a min-heap, then hand them out best first.
+            // Newest first, so a document that only ties the worst hit kept so far is older and can be passed over.
+            PriorityQueue<Integer> best = new PriorityQueue<>((a, b) -> scores[a] != scores[b] ? Double.compare(scores[a], scores[b]) : Integer.compare(a, b));
+            for (int doc = result.previousSetBit(this.docCount - 1); doc >= 0; doc = result.previousSetBit(doc - 1)) {
+                if (best.size() == limit && scores[doc] <= scores[best.peek()]) continue;
+                best.add(doc);
+                if (best.size() > limit) best.poll();
+            }
+            Hit[] hits = new Hit[best.size()];
+            for (int i = hits.length - 1; i >= 0; i--) {
+                int doc = best.poll();
+                hits[i] = new Hit(this.groups.get(this.docGroups[doc]), this.docMessages[doc], scores[doc]);
+            }
+            return Arrays.asList(hits);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private Collection<String> matchingTerms(String word, boolean prefix) {
+        if (!prefix) return this.terms.containsKey(word) ? List.of(word) : List.of();
+        return this.terms.subMap(word, true, word + Character.MAX_VALUE, false).keySet();
+    }
+}
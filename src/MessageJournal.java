@@ -0,0 +1,176 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+public class MessageJournal implements Closeable {
+    // File layout: a 16-byte header (magic, version, committed length) followed by append-only records of
+    // 4-byte message id, 4-byte body length and the UTF-8 body. The committed length is only advanced once a record
+    // is completely written, so a crash mid-append leaves the journal ending at the last whole record.
+    private static final int MAGIC = 0x474A524E;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private MappedByteBuffer map;
+    private int end;
+    // Message id -> record offset, 0 where the message is not in the journal (no record can start inside the header).
+    private int[] offsets = new int[64];
+    private int highestId = -1;
+    private int count;
+
+    private MessageJournal(Path path, FileChannel channel, FileLock lock) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.lock = lock;
+        long size = channel.size();
+        this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, INITIAL_CAPACITY));
+        if (size < HEADER_BYTES || this.map.getInt(0) != MAGIC || this.map.getInt(4) != VERSION) {
+            reset();
+        } else {
+            this.end = (int) Math.min(this.map.getLong(8), this.map.capacity());
+            index();
+        }
+    }
+
+    public static Path directoryFor(String server) {
+        // One directory per server, so the same group name on two servers never shares a journal.
+        String root = System.getProperty("groupchat.journal.dir", Path.of(System.getProperty("user.home"), ".groupchat", "journal").toString());
+        return Path.of(root, fileName(server));
+    }
+
+    public static MessageJournal open(Path directory, String group) throws IOException {
+        Files.createDirectories(directory);
+        Path path = directory.resolve(fileName(group) + ".journal");
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("Journal " + path + " is in use by another client");
+        }
+        try {
+            return new MessageJournal(path, channel, lock);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static String fileName(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private void index() {
+        // Rebuild the id index with one sequential pass over the mapping, stopping at anything that does not add up.
+        int position = HEADER_BYTES;
+        while (position + RECORD_HEADER_BYTES <= this.end) {
+            int id = this.map.getInt(position);
+            int length = this.map.getInt(position + 4);
+            if (id < 0 || length < 0 || length > this.end - position - RECORD_HEADER_BYTES) break;
+            put(id, position);
+            position += RECORD_HEADER_BYTES + length;
+        }
+        this.end = position;
+    }
+
+    private void put(int id, int offset) {
+        if (id >= this.offsets.length) this.offsets = Arrays.copyOf(this.offsets, Math.max(this.offsets.length * 2, id + 1));
+        if (this.offsets[id] == 0) this.count++;
+        this.offsets[id] = offset;
+        this.highestId = Math.max(this.highestId, id);
+    }
+
+    public synchronized boolean append(int id, String body) throws IOException {
+        // Returns false if the message is already in the journal; ids never change their body on the server.
+        if (id < 0) throw new IllegalArgumentException("Invalid message id " + id);
+        if (contains(id)) return false;
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(RECORD_HEADER_BYTES + bytes.length);
+        this.map.putInt(this.end, id);
+        this.map.putInt(this.end + 4, bytes.length);
+        this.map.put(this.end + RECORD_HEADER_BYTES, bytes);
+        put(id, this.end);
+        this.end += RECORD_HEADER_BYTES + bytes.length;
+        this.map.putLong(8, this.end);
+        return true;
+    }
+
+    private void ensureCapacity(int extra) throws IOException {
+        long needed = (long) this.end + extra;
+        if (needed <= this.map.capacity()) return;
+        if (needed > Integer.MAX_VALUE) throw new IOException("Journal " + this.path + " is full");
+        // Remapping is rare, the mapping doubles each time and the old one is dropped for the GC to unmap.
+        long capacity = Math.min(Math.max((long) this.map.capacity() * 2, needed), Integer.MAX_VALUE);
+        this.map = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    public synchronized boolean contains(int id) {
+        return id >= 0 && id < this.offsets.length && this.offsets[id] != 0;
+    }
+
+    public synchronized String read(int id) {
+        // The body of the message, or null if it has never been stored.
+        if (!contains(id)) return null;
+        return body(this.offsets[id]);
+    }
+
+    private String body(int offset) {
+        byte[] bytes = new byte[this.map.getInt(offset + 4)];
+        this.map.get(offset + RECORD_HEADER_BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public synchronized void forEach(BiConsumer<Integer, String> action) {
+        // Every stored message with its id, in id order.
+        for (int id = 0; id <= this.highestId; id++) {
+            if (this.offsets[id] != 0) action.accept(id, body(this.offsets[id]));
+        }
+    }
+
+    public synchronized int highestId() {
+        return this.highestId;
+    }
+
+    public synchronized int size() {
+        return this.count;
+    }
+
+    public synchronized void clear() {
+        // For when the server's history no longer matches ours, e.g. it was restarted.
+        reset();
+    }
+
+    private void reset() {
+        this.map.putInt(0, MAGIC);
+        this.map.putInt(4, VERSION);
+        this.map.putLong(8, HEADER_BYTES);
+        this.end = HEADER_BYTES;
+        this.offsets = new int[64];
+        this.highestId = -1;
+        this.count = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.map.force();
+        this.lock.release();
+        this.channel.close();
+    }
+}
@@ -0,0 +1,71 @@
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class MessageListModel extends AbstractListModel<String> {
+    // A group's messages as the chat list sees them. The rows live in a MessageStore and are only decoded when the list
+    // paints them, so apart from the visible rows none exist as Strings.
+    private final MessageStore store;
+    // The store's rows as last reported to the list; only touched on the event dispatch thread.
+    private int first;
+    private int end;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private static final long serialVersionUID = 1L;
+
+    public MessageListModel(MessageStore store) {
+        this.store = store;
+    }
+
+    public MessageStore getStore() {
+        return this.store;
+    }
+
+    public void append(int id, String body) {
+        // Safe from any thread, any number of appends before the EDT gets to run collapse into one repaint.
+        if (this.store.append(id, body)) scheduleFlush();
+    }
+
+    public void clear() {
+        // Rows appended before this call are dropped, rows appended after it survive the next flush.
+        this.store.clear();
+        scheduleFlush();
+    }
+
+    public int indexOf(int id) {
+        // Where the message is in the list, or -1 if it is not there (yet).
+        int row = this.store.rowOf(id);
+        return row < this.first || row >= this.end ? -1 : row - this.first;
+    }
+
+    private void scheduleFlush() {
+        if (this.flushScheduled.compareAndSet(false, true)) SwingUtilities.invokeLater(this::flush);
+    }
+
+    private void flush() {
+        // Rows evicted since the last flush leave from the top, new ones arrive at the bottom.
+        this.flushScheduled.set(false);
+        int storeFirst = this.store.first();
+        int storeEnd = this.store.end();
+        int removed = Math.min(storeFirst, this.end) - this.first;
+        this.first = storeFirst;
+        this.end = Math.max(this.end, storeFirst);
+        if (removed > 0) fireIntervalRemoved(this, 0, removed - 1);
+        if (storeEnd > this.end) {
+            int firstAdded = this.end - this.first;
+            this.end = storeEnd;
+            fireIntervalAdded(this, firstAdded, storeEnd - this.first - 1);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return this.end - this.first;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        // A row evicted since the last flush is about to be removed from the list, until then it shows empty.
+        String body = this.store.body(this.first + index);
+        return body == null ? "" : body;
+    }
+}
@@ -0,0 +1,257 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class MessageStore {
+    // A group's scrollback: bodies are packed as UTF-8 into fixed-size chunks, one after the other in arrival order, with
+    // each row's id, chunk, offset and length in int arrays. Rows are numbered from the first one ever stored, so a
+    // row keeps its number while older ones are evicted. Once over its limits the store drops its oldest rows, and a
+    // chunk goes once none of its rows are left, so a long session settles at a fixed size instead of growing.
+    static final int CHUNK_BYTES = 64 * 1024;
+    static final int DEFAULT_MAX_MESSAGES = Integer.getInteger("groupchat.scrollback.messages", 100_000);
+    static final long DEFAULT_MAX_BYTES = Long.getLong("groupchat.scrollback.mb", 16) * 1024 * 1024;
+
+    private final int maxMessages;
+    private final long maxBytes;
+
+    // Oldest first, with the row number just past each chunk's last row; the last chunk is the one being filled.
+    private final ArrayList<byte[]> chunks = new ArrayList<>();
+    private int[] chunkEnds = new int[16];
+    private int firstChunk;
+    private int used;
+    private long bytes;
+    // An evicted chunk kept for the next one, so a full store does not allocate a new one every 64 KB.
+    private byte[] spare;
+
+    // Rows first..end-1 are stored, row r at index r - base of the arrays.
+    private int base;
+    private int first;
+    private int end;
+    private int[] ids = new int[256];
+    private int[] rowChunks = new int[256];
+    private int[] offsets = new int[256];
+    private int[] lengths = new int[256];
+
+    // Message id -> row + 1, open addressing. Evicted rows are left in until the next rebuild and fail the check.
+    private int[] idTable = new int[512];
+    private int idEntries;
+
+    public MessageStore() {
+        this(DEFAULT_MAX_MESSAGES, DEFAULT_MAX_BYTES);
+    }
+
+    public MessageStore(int maxMessages, long maxBytes) {
+        this.maxMessages = Math.max(1, maxMessages);
+        this.maxBytes = Math.max(CHUNK_BYTES, maxBytes);
+    }
+
+    public synchronized boolean append(int id, String body) {
+        // Returns false if a message with this id is already stored. Rows without an id (negative) are never looked up.
+        if (id >= 0 && rowOf(id) >= 0) return false;
+        int length = utf8Length(body);
+        byte[] chunk = chunkFor(length);
+        encode(body, chunk, this.used);
+
+        if (this.end - this.base == this.ids.length) makeRoom();
+        int index = this.end - this.base;
+        this.ids[index] = id;
+        this.rowChunks[index] = this.firstChunk + this.chunks.size() - 1;
+        this.offsets[index] = this.used;
+        this.lengths[index] = length;
+        this.used += length;
+        int row = this.end++;
+        this.chunkEnds[this.chunks.size() - 1] = this.end;
+        if (id >= 0) putId(id, row);
+        evict();
+        return true;
+    }
+
+    public synchronized void clear() {
+        // Everything stored so far goes, rows appended afterwards carry on numbering from here.
+        this.first = this.end;
+        while (!this.chunks.isEmpty()) dropOldestChunk();
+        Arrays.fill(this.idTable, 0);
+        this.idEntries = 0;
+    }
+
+    public synchronized int first() {
+        return this.first;
+    }
+
+    public synchronized int end() {
+        return this.end;
+    }
+
+    public synchronized int size() {
+        return this.end - this.first;
+    }
+
+    public synchronized long bytes() {
+        return this.bytes;
+    }
+
+    public synchronized String body(int row) {
+        // Null once the row has been evicted.
+        if (row < this.first || row >= this.end) return null;
+        int index = row - this.base;
+        byte[] chunk = this.chunks.get(this.rowChunks[index] - this.firstChunk);
+        return new String(chunk, this.offsets[index], this.lengths[index], StandardCharsets.UTF_8);
+    }
+
+    public synchronized String bodyOf(int id) {
+        int row = rowOf(id);
+        return row < 0 ? null : body(row);
+    }
+
+    public synchronized int rowOf(int id) {
+        // The row holding the message, or -1 if it was never stored or has been evicted.
+        if (id < 0) return -1;
+        int mask = this.idTable.length - 1;
+        for (int slot = hash(id) & mask; this.idTable[slot] != 0; slot = (slot + 1) & mask) {
+            int row = this.idTable[slot] - 1;
+            if (row >= this.first && this.ids[row - this.base] == id) return row;
+        }
+        return -1;
+    }
+
+    private byte[] chunkFor(int length) {
+        // The chunk being filled if the body fits, a new one otherwise. A body bigger than a chunk gets one of its own,
+        // which is closed right away so later rows keep going into chunks in row order.
+        if (!this.chunks.isEmpty() && this.used + length <= this.chunks.get(this.chunks.size() - 1).length) {
+            return this.chunks.get(this.chunks.size() - 1);
+        }
+        byte[] chunk;
+        if (length > CHUNK_BYTES) {
+            chunk = new byte[length];
+        } else {
+            chunk = this.spare != null ? this.spare : new byte[CHUNK_BYTES];
+            this.spare = null;
+        }
+        if (this.chunks.size() == this.chunkEnds.length) this.chunkEnds = Arrays.copyOf(this.chunkEnds, this.chunkEnds.length * 2);
+        this.chunks.add(chunk);
+        this.chunkEnds[this.chunks.size() - 1] = this.end;
+        this.bytes += chunk.length;
+        this.used = 0;
+        return chunk;
+    }
+
+    private void evict() {
+        // Oldest rows first: down to the row limit, then whole chunks down to the byte limit, then any chunk left
+        // without rows. The chunk being filled always stays.
+        if (this.end - this.first > this.maxMessages) this.first = this.end - this.maxMessages;
+        while (this.chunks.size() > 1 && this.bytes > this.maxBytes) {
+            this.first = Math.max(this.first, this.chunkEnds[0]);
+            dropOldestChunk();
+        }
+        while (this.chunks.size() > 1 && this.chunkEnds[0] <= this.first) dropOldestChunk();
+    }
+
+    private void dropOldestChunk() {
+        byte[] chunk = this.chunks.remove(0);
+        System.arraycopy(this.chunkEnds, 1, this.chunkEnds, 0, this.chunks.size());
+        this.firstChunk++;
+        this.bytes -= chunk.length;
+        if (chunk.length == CHUNK_BYTES) this.spare = chunk;
+        if (this.chunks.isEmpty()) this.used = 0;
+    }
+
+    private void makeRoom() {
+        // The row arrays are full. With evicted rows at the front they are shifted down instead of grown.
+        int live = this.end - this.first;
+        int from = this.first - this.base;
+        if (live <= this.ids.length / 2) {
+            System.arraycopy(this.ids, from, this.ids, 0, live);
+            System.arraycopy(this.rowChunks, from, this.rowChunks, 0, live);
+            System.arraycopy(this.offsets, from, this.offsets, 0, live);
+            System.arraycopy(this.lengths, from, this.lengths, 0, live);
+        } else {
+            int capacity = this.ids.length * 2;
+            this.ids = grow(this.ids, from, live, capacity);
+            this.rowChunks = grow(this.rowChunks, from, live, capacity);
+            this.offsets = grow(this.offsets, from, live, capacity);
+            this.lengths = grow(this.lengths, from, live, capacity);
+        }
+        this.base = this.first;
+        rebuildIds();
+    }
+
+    private static int[] grow(int[] array, int from, int length, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, from, grown, 0, length);
+        return grown;
+    }
+
+    private void putId(int id, int row) {
+        if ((this.idEntries + 1) * 2 > this.idTable.length) rebuildIds();
+        int mask = this.idTable.length - 1;
+        int slot = hash(id) & mask;
+        while (this.idTable[slot] != 0) slot = (slot + 1) & mask;
+        this.idTable[slot] = row + 1;
+        this.idEntries++;
+    }
+
+    private void rebuildIds() {
+        // Only live rows go back in, which is also what clears out the evicted ones. The table is reused while it fits.
+        int live = this.end - this.first;
+        int capacity = 512;
+        while (capacity < live * 4) capacity *= 2;
+        if (capacity > this.idTable.length || capacity * 4 < this.idTable.length) this.idTable = new int[capacity];
+        else Arrays.fill(this.idTable, 0);
+        this.idEntries = 0;
+        int mask = this.idTable.length - 1;
+        for (int row = this.first; row < this.end; row++) {
+            int id = this.ids[row - this.base];
+            if (id < 0) continue;
+            int slot = hash(id) & mask;
+            while (this.idTable[slot] != 0) slot = (slot + 1) & mask;
+            this.idTable[slot] = row + 1;
+            this.idEntries++;
+        }
+    }
+
+    private static int hash(int id) {
+        // Ids are mostly consecutive, spread them over the table.
+        return id * 0x9E3779B9 >>> 7;
+    }
+
+    private static int utf8Length(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) length += 1;
+            else if (c < 0x800) length += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) length += 1;
+            else length += 3;
+        }
+        return length;
+    }
+
+    private static void encode(String text, byte[] out, int position) {
+        // Straight into the chunk, without the temporary array getBytes() would make. A lone surrogate becomes '?',
+        // as it does with getBytes().
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                out[position++] = (byte) c;
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xC0 | c >> 6);
+                out[position++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int code = Character.toCodePoint(c, text.charAt(++i));
+                out[position++] = (byte) (0xF0 | code >> 18);
+                out[position++] = (byte) (0x80 | code >> 12 & 0x3F);
+                out[position++] = (byte) (0x80 | code >> 6 & 0x3F);
+                out[position++] = (byte) (0x80 | code & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                out[position++] = '?';
+            } else {
+                out[position++] = (byte) (0xE0 | c >> 12);
+                out[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                out[position++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+    }
+}
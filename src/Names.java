@@ -0,0 +1,19 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Names {
+    // Every frame brings its usernames and group names as new strings. The ones that are kept go through here, so a
+    // name is held once however many groups and member lists it appears in. The table starts over once it gets large,
+    // names seen before that are simply not shared with later ones.
+    private static final int MAX_NAMES = 1 << 16;
+    private static final ConcurrentHashMap<String, String> names = new ConcurrentHashMap<>();
+
+    private Names() {
+    }
+
+    public static String intern(String name) {
+        String known = names.putIfAbsent(name, name);
+        if (known != null) return known;
+        if (names.size() > MAX_NAMES) names.clear();
+        return name;
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class NioSession {
+    public interface FrameListener {
+        // Called on the selector thread for every complete frame, so implementations should not block.
+        void onFrame(NioSession session, String frame);
+
+        default void onClosed(NioSession session, IOException cause) {
+        }
+    }
+
+    final SocketChannel channel;
+    volatile SelectionKey key;
+    private final NioTransport.SelectorLoop loop;
+    private final FrameListener listener;
+    private volatile FrameSource decoder = new FrameDecoder();
+    private final ConcurrentLinkedQueue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+    private volatile ClientMetrics metrics;
+    // Selector thread only: reads since the last complete frame, and the buffers handed to one gathering write.
+    private int readsSinceFrame;
+    private final ByteBuffer[] gather = new ByteBuffer[64];
+
+    NioSession(SocketChannel channel, NioTransport.SelectorLoop loop, FrameListener listener) {
+        this.channel = channel;
+        this.loop = loop;
+        this.listener = listener;
+    }
+
+    public void sendMessage(String s) throws IOException {
+        if (this.closed) throw new IOException("Session is closed");
+        // Same wire format as the blocking client: one line per command.
+        this.outbound.add(ByteBuffer.wrap((s + "\n").getBytes(StandardCharsets.UTF_8)));
+        this.loop.requestWrite(this);
+    }
+
+    public void sendBytes(byte[] data) throws IOException {
+        // Already framed bytes, e.g. length-prefixed commands.
+        if (this.closed) throw new IOException("Session is closed");
+        this.outbound.add(ByteBuffer.wrap(data));
+        this.loop.requestWrite(this);
+    }
+
+    public void setMetrics(ClientMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void useLengthFraming() {
+        // Only safe while the server is waiting on us, so no delimited bytes can still be on their way.
+        this.decoder = new LengthFrameDecoder();
+    }
+
+    void received(byte[] data, int length) {
+        FrameSource decoder = this.decoder;
+        ClientMetrics metrics = this.metrics;
+        if (metrics != null) metrics.bytesRead(length);
+        this.readsSinceFrame++;
+        try {
+            decoder.feed(data, 0, length);
+        } catch (IllegalStateException e) {
+            closeWith(new IOException("Corrupt frame from server: " + e.getMessage()));
+            return;
+        }
+        String frame;
+        while ((frame = decoder.poll()) != null) {
+            if (metrics != null) metrics.frameRead(this.readsSinceFrame);
+            this.readsSinceFrame = 0;
+            this.listener.onFrame(this, frame);
+        }
+    }
+
+    boolean hasPendingWrites() {
+        return !this.outbound.isEmpty();
+    }
+
+    void flush() throws IOException {
+        // Only ever called on the selector thread. Everything queued goes out in one gathering write, so batches
+        // sent by several threads since the last flush still cost a single syscall.
+        while (true) {
+            int count = 0;
+            for (ByteBuffer buffer : this.outbound) {
+                if (count == this.gather.length) break;
+                this.gather[count++] = buffer;
+            }
+            if (count == 0) break;
+            ByteBuffer last = this.gather[count - 1];
+            try {
+                this.channel.write(this.gather, 0, count);
+            } finally {
+                Arrays.fill(this.gather, 0, count, null);
+            }
+            ByteBuffer head;
+            while ((head = this.outbound.peek()) != null && !head.hasRemaining()) this.outbound.poll();
+            if (last.hasRemaining()) {
+                // The socket is full, wait for the selector to report it writable again.
+                this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        if (this.key != null && this.key.isValid()) this.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    void closeWith(IOException cause) {
+        if (this.closed) return;
+        close();
+        this.listener.onClosed(this, cause);
+    }
+
+    public boolean isOpen() {
+        return !this.closed;
+    }
+
+    public void close() {
+        this.closed = true;
+        if (this.key != null) this.key.cancel();
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing the connection: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NioTransport {
+    private final SelectorLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    public NioTransport() {
+        this(1);
+    }
+
+    public NioTransport(int selectorThreads) {
+        // A handful of selector threads serve every session opened through this transport.
+        this.loops = new SelectorLoop[Math.max(1, selectorThreads)];
+        for (int i = 0; i < this.loops.length; i++) {
+            try {
+                this.loops[i] = new SelectorLoop(i);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not open selector: " + e.getMessage(), e);
+            }
+            this.loops[i].thread.start();
+        }
+    }
+
+    public NioSession connect(String ip, int port, NioSession.FrameListener listener) throws IOException {
+        // Connect in blocking mode so callers get connection errors right away, then hand the channel to a selector.
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(ip, port));
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectorLoop loop = this.loops[Math.floorMod(this.nextLoop.getAndIncrement(), this.loops.length)];
+        NioSession session = new NioSession(channel, loop, listener);
+        loop.register(session);
+        return session;
+    }
+
+    public void close() {
+        for (SelectorLoop loop : this.loops) loop.close();
+    }
+
+    static class SelectorLoop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final ConcurrentLinkedQueue<NioSession> registrations = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<NioSession> writeRequests = new ConcurrentLinkedQueue<>();
+        // Shared by every session on this loop since a read is fully decoded before the next one starts.
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        private final byte[] scratch = new byte[64 * 1024];
+        private volatile boolean running = true;
+
+        SelectorLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-selector-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void register(NioSession session) {
+            this.registrations.add(session);
+            this.selector.wakeup();
+        }
+
+        void requestWrite(NioSession session) {
+            this.writeRequests.add(session);
+            this.selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (this.running) {
+                    this.selector.select();
+                    processRegistrations();
+                    processWriteRequests();
+
+                    Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioSession session = (NioSession) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) read(session);
+                            if (key.isValid() && key.isWritable()) session.flush();
+                        } catch (IOException e) {
+                            session.closeWith(e);
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (this.running) System.err.println("Selector error: " + e.getMessage());
+            }
+        }
+
+        private void processRegistrations() {
+            NioSession session;
+            while ((session = this.registrations.poll()) != null) {
+                try {
+                    session.key = session.channel.register(this.selector, SelectionKey.OP_READ, session);
+                    // Anything sent before registration finished still needs to go out.
+                    if (session.hasPendingWrites()) session.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                } catch (IOException e) {
+                    session.closeWith(e);
+                }
+            }
+        }
+
+        private void processWriteRequests() {
+            NioSession session;
+            while ((session = this.writeRequests.poll()) != null) {
+                if (session.key == null || !session.key.isValid()) continue;
+                try {
+                    session.flush();
+                } catch (IOException e) {
+                    session.closeWith(e);
+                }
+            }
+        }
+
+        private void read(NioSession session) throws IOException {
+            int bytesRead;
+            while ((bytesRead = session.channel.read(this.readBuffer)) > 0) {
+                this.readBuffer.flip();
+                this.readBuffer.get(this.scratch, 0, bytesRead);
+                this.readBuffer.clear();
+                session.received(this.scratch, bytesRead);
+            }
+            if (bytesRead == -1) session.closeWith(null);
+        }
+
+        void close() {
+            this.running = false;
+            try {
+                for (SelectionKey key : this.selector.keys()) ((NioSession) key.attachment()).close();
+                this.selector.close();
+            } catch (IOException | ClosedSelectorException e) {
+                System.err.println("Error closing the selector: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+import java.util.List;
+
+public abstract class ProtocolEvent {
+    // The frame exactly as the server sent it, minus the <END> delimiter.
+    private final String text;
+
+    protected ProtocolEvent(String text) {
+        this.text = text;
+    }
+
+    public String getText() {
+        return this.text;
+    }
+
+    public boolean isAnnouncement() {
+        // Announcements are pushed by the server, everything else answers a command.
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + ": " + this.text;
+    }
+
+    public static final class Prompt extends ProtocolEvent {
+        public Prompt(String text) {
+            super(text);
+        }
+    }
+
+    public static final class Welcome extends ProtocolEvent {
+        public final String username;
+
+        public Welcome(String text, String username) {
+            super(text);
+            this.username = username;
+        }
+    }
+
+    public static final class JoinAck extends ProtocolEvent {
+        public final String group;
+
+        public JoinAck(String text, String group) {
+            super(text);
+            this.group = group;
+        }
+    }
+
+    public static final class LeaveAck extends ProtocolEvent {
+        public final String group;
+
+        public LeaveAck(String text, String group) {
+            super(text);
+            this.group = group;
+        }
+    }
+
+    public static final class GroupInfo extends ProtocolEvent {
+        public final String group;
+        public final List<String> members;
+        public final int messageCount;
+        public final int cutoff;
+
+        public GroupInfo(String text, String group, List<String> members, int messageCount, int cutoff) {
+            super(text);
+            this.group = group;
+            this.members = members;
+            this.messageCount = messageCount;
+            this.cutoff = cutoff;
+        }
+    }
+
+    public static final class GroupList extends ProtocolEvent {
+        public GroupList(String text) {
+            super(text);
+        }
+    }
+
+    public static final class PostAck extends ProtocolEvent {
+        public PostAck(String text) {
+            super(text);
+        }
+    }
+
+    public static final class MessageBody extends ProtocolEvent {
+        public MessageBody(String text) {
+            super(text);
+        }
+    }
+
+    public static final class Error extends ProtocolEvent {
+        public Error(String text) {
+            super(text);
+        }
+    }
+
+    public static final class PostAnnouncement extends ProtocolEvent {
+        public final int messageId;
+        public final String from;
+        public final String time;
+        public final String subject;
+        public final String group;
+
+        public PostAnnouncement(String text, int messageId, String from, String time, String subject, String group) {
+            super(text);
+            this.messageId = messageId;
+            this.from = from;
+            this.time = time;
+            this.subject = subject;
+            this.group = group;
+        }
+
+        @Override
+        public boolean isAnnouncement() {
+            return true;
+        }
+    }
+
+    public static final class MemberJoined extends ProtocolEvent {
+        public final String user;
+        public final String group;
+
+        public MemberJoined(String text, String user, String group) {
+            super(text);
+            this.user = user;
+            this.group = group;
+        }
+
+        @Override
+        public boolean isAnnouncement() {
+            return true;
+        }
+    }
+
+    public static final class MemberLeft extends ProtocolEvent {
+        public final String user;
+        public final String group;
+
+        public MemberLeft(String text, String user, String group) {
+            super(text);
+            this.user = user;
+            this.group = group;
+        }
+
+        @Override
+        public boolean isAnnouncement() {
+            return true;
+        }
+    }
+
+    public static final class Empty extends ProtocolEvent {
+        // The server terminates post announcements twice, which leaves an empty frame behind each one.
+        public Empty() {
+            super("");
+        }
+
+        @Override
+        public boolean isAnnouncement() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProtocolParser {
+    // Turns one frame into a typed event in a single pass, using index arithmetic instead of split() so the only
+    // allocations are the field values themselves.
+
+    public static ProtocolEvent parse(String frame) {
+        int length = frame.length();
+        if (length == 0) return new ProtocolEvent.Empty();
+
+        switch (frame.charAt(0)) {
+            case 'E':
+                if (frame.startsWith("Enter ")) return new ProtocolEvent.Prompt(frame);
+                break;
+            case 'W':
+                if (frame.startsWith("Welcome to the server, ")) return new ProtocolEvent.Welcome(frame, frame.substring(23).strip());
+                break;
+            case 'Y':
+                if (frame.startsWith("You have joined ")) {
+                    int end = frame.lastIndexOf('!');
+                    return new ProtocolEvent.JoinAck(frame, frame.substring(16, end < 16 ? length : end));
+                }
+                if (frame.startsWith("You are already in ")) return new ProtocolEvent.Error(frame);
+                break;
+            case 'S':
+                if (frame.startsWith("Successfully left '")) {
+                    int end = frame.lastIndexOf('\'');
+                    return new ProtocolEvent.LeaveAck(frame, frame.substring(19, end < 19 ? length : end));
+                }
+                if (frame.startsWith("Sorry, message ")) return new ProtocolEvent.Error(frame);
+                break;
+            case 'G':
+                if (frame.startsWith("Group: ")) {
+                    ProtocolEvent info = parseGroupInfo(frame);
+                    if (info != null) return info;
+                }
+                if (frame.startsWith("Group name: ")) return new ProtocolEvent.GroupList(frame);
+                if (frame.startsWith("Group does not exist!")) return new ProtocolEvent.Error(frame);
+                break;
+            case 'M':
+                if (frame.startsWith("Message ID: ")) {
+                    ProtocolEvent post = parsePostAnnouncement(frame);
+                    if (post != null) return post;
+                }
+                if (frame.equals("Message posted!")) return new ProtocolEvent.PostAck(frame);
+                if (frame.endsWith(" does not exist.") && frame.startsWith("Message ")) return new ProtocolEvent.Error(frame);
+                break;
+            case 'I':
+                if (frame.startsWith("Invalid command!") || frame.startsWith("Invalid arguments for ")) return new ProtocolEvent.Error(frame);
+                break;
+            case 'A':
+                if (frame.startsWith("An error has occurred")) return new ProtocolEvent.Error(frame);
+                break;
+            case 'C':
+                if (frame.startsWith("Cannot access messages from ") || frame.startsWith("Cannot post to group ")) return new ProtocolEvent.Error(frame);
+                break;
+            default:
+                break;
+        }
+
+        // Membership announcements start with the username, so they can only be recognised by their middle.
+        int joined = frame.indexOf(" has joined ");
+        if (joined > 0 && frame.charAt(length - 1) == '!') {
+            return new ProtocolEvent.MemberJoined(frame, frame.substring(0, joined), frame.substring(joined + 12, length - 1));
+        }
+        int left = frame.indexOf(" has left the ");
+        if (left > 0 && frame.endsWith(" group!\n")) {
+            return new ProtocolEvent.MemberLeft(frame, frame.substring(0, left), frame.substring(left + 14, length - 8));
+        }
+        if (frame.indexOf(" is already in the server, please choose another username.") > 0) return new ProtocolEvent.Error(frame);
+
+        // Anything else is the body of a message that was asked for.
+        return new ProtocolEvent.MessageBody(frame);
+    }
+
+    private static ProtocolEvent parseGroupInfo(String frame) {
+        // Group: <name>\nUsers: [a, b]\nMessages: <n>\nCutoff: <n>\n
+        int nameEnd = frame.indexOf('\n');
+        int usersStart = valueStart(frame, "\nUsers: [", nameEnd);
+        int usersEnd = usersStart < 0 ? -1 : frame.indexOf(']', usersStart);
+        int messagesStart = valueStart(frame, "\nMessages: ", usersEnd);
+        int cutoffStart = valueStart(frame, "\nCutoff: ", messagesStart);
+        if (nameEnd < 0 || usersEnd < 0 || messagesStart < 0 || cutoffStart < 0) return null;
+
+        List<String> members = new ArrayList<>();
+        int start = usersStart;
+        while (start < usersEnd) {
+            int comma = frame.indexOf(", ", start);
+            int end = comma < 0 || comma > usersEnd ? usersEnd : comma;
+            if (end > start) members.add(frame.substring(start, end).strip());
+            start = end + 2;
+        }
+        try {
+            return new ProtocolEvent.GroupInfo(frame, frame.substring(7, nameEnd).strip(), members,
+                    parseInt(frame, messagesStart), parseInt(frame, cutoffStart));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static ProtocolEvent parsePostAnnouncement(String frame) {
+        // Message ID: <n>\nGroup : <server object>\nFrom: <user>\nTime: <time>\nSubject: <subject>\nGroup: <name>\n
+        int fromStart = valueStart(frame, "\nFrom: ", 0);
+        int timeStart = valueStart(frame, "\nTime: ", fromStart);
+        int subjectStart = valueStart(frame, "\nSubject: ", timeStart);
+        // The group name is on the last "Group: " line, the earlier "Group : " line is the server's object.
+        int groupStart = valueStart(frame, "\nGroup: ", subjectStart);
+        if (fromStart < 0 || timeStart < 0 || subjectStart < 0 || groupStart < 0) return null;
+        try {
+            return new ProtocolEvent.PostAnnouncement(frame, parseInt(frame, 12), lineAt(frame, fromStart),
+                    lineAt(frame, timeStart), lineAt(frame, subjectStart), lineAt(frame, groupStart).strip());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int valueStart(String frame, String key, int from) {
+        // Index just past the key at or after from, or -1.
+        if (from < 0) return -1;
+        int index = frame.indexOf(key, from);
+        return index < 0 ? -1 : index + key.length();
+    }
+
+    private static String lineAt(String frame, int start) {
+        int end = frame.indexOf('\n', start);
+        return frame.substring(start, end < 0 ? frame.length() : end);
+    }
+
+    private static int parseInt(String frame, int start) {
+        int end = start;
+        if (end < frame.length() && frame.charAt(end) == '-') end++;
+        while (end < frame.length() && Character.isDigit(frame.charAt(end))) end++;
+        return Integer.parseInt(frame, start, end, 10);
+    }
+}
@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ReconnectManager {
+    public interface Listener {
+        // All called off the EDT, from the dispatcher or the reconnect thread.
+        default void onConnectionLost(IOException cause) {
+        }
+
+        default void onReconnecting(int attempt, long delayMillis) {
+        }
+
+        // The session is back: same username, the listed groups rejoined, commands can be sent again.
+        default void onReconnected(List<String> groups) {
+        }
+
+        default void onGaveUp(IOException cause) {
+        }
+    }
+
+    private final SocketClient client;
+    private final EventDispatcher events;
+    private final Listener listener;
+
+    // What the session looked like, learned from the events going past, so it can be put back the same way.
+    private volatile String username;
+    private final LinkedHashSet<String> groups = new LinkedHashSet<>();
+    private final ConcurrentHashMap<String, Integer> lastSeen = new ConcurrentHashMap<>();
+
+    private long initialDelayMillis = 250;
+    private long maxDelayMillis = 30_000;
+    private int maxAttempts;
+    private long idleMillis = 30_000;
+    private long probeTimeoutMillis = 5_000;
+
+    private final AtomicBoolean reconnecting = new AtomicBoolean();
+    private volatile boolean running;
+    private volatile boolean probesPaused;
+    private ScheduledExecutorService heartbeat;
+
+    public ReconnectManager(SocketClient client, EventDispatcher events, Listener listener) {
+        // Takes over the dispatcher's disconnect handler, losing the connection is reported through the listener.
+        this.client = client;
+        this.events = events;
+        this.listener = listener;
+        events.tap(this::observe).onDisconnect(this::connectionLost);
+    }
+
+    public ReconnectManager setUsername(String username) {
+        // Only needed when the username was sent before the dispatcher started, otherwise the welcome is seen.
+        this.username = username;
+        return this;
+    }
+
+    public ReconnectManager setBackoff(long initialDelayMillis, long maxDelayMillis) {
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        return this;
+    }
+
+    public ReconnectManager setMaxAttempts(int maxAttempts) {
+        // 0 keeps trying until close().
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public ReconnectManager setIdleTimeout(long idleMillis, long probeTimeoutMillis) {
+        // After idleMillis without a frame the server is asked for something; no answer within the probe timeout
+        // means the connection is dead even if TCP has not noticed yet.
+        this.idleMillis = idleMillis;
+        this.probeTimeoutMillis = probeTimeoutMillis;
+        return this;
+    }
+
+    public void setProbesPaused(boolean paused) {
+        // For while the server is in the middle of a command that reads more lines, like a grouppost waiting for its
+        // subject and body: a probe sent then would be taken as one of them.
+        this.probesPaused = paused;
+    }
+
+    public void start() {
+        this.running = true;
+        this.client.startDispatcher(this.events);
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(this.idleMillis / 2, 100);
+        this.heartbeat.scheduleWithFixedDelay(this::probe, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        this.running = false;
+        if (this.heartbeat != null) this.heartbeat.shutdownNow();
+        this.client.close();
+    }
+
+    public List<String> getGroups() {
+        synchronized (this.groups) {
+            return new ArrayList<>(this.groups);
+        }
+    }
+
+    public int lastSeen(String group) {
+        // Highest message id known to exist in the group, -1 if none was seen this session.
+        return this.lastSeen.getOrDefault(group, -1);
+    }
+
+    private void observe(ProtocolEvent event) {
+        if (event instanceof ProtocolEvent.Welcome) {
+            this.username = ((ProtocolEvent.Welcome) event).username;
+        } else if (event instanceof ProtocolEvent.JoinAck) {
+            synchronized (this.groups) {
+                this.groups.add(((ProtocolEvent.JoinAck) event).group);
+            }
+        } else if (event instanceof ProtocolEvent.LeaveAck) {
+            synchronized (this.groups) {
+                this.groups.remove(((ProtocolEvent.LeaveAck) event).group);
+            }
+        } else if (event instanceof ProtocolEvent.PostAnnouncement) {
+            ProtocolEvent.PostAnnouncement post = (ProtocolEvent.PostAnnouncement) event;
+            this.lastSeen.merge(post.group, post.messageId, Math::max);
+        } else if (event instanceof ProtocolEvent.GroupInfo) {
+            ProtocolEvent.GroupInfo info = (ProtocolEvent.GroupInfo) event;
+            this.lastSeen.merge(info.group, info.messageCount - 1, Math::max);
+        }
+    }
+
+    private void probe() {
+        if (!this.running || !this.client.canReconnect() || this.reconnecting.get() || this.probesPaused) return;
+        long waiting = this.client.oldestPendingMillis();
+        if (waiting >= 0) {
+            // A command is still waiting for its reply, and the server may be reading lines for it, so no probe is
+            // sent. That reply does the probe's job: long overdue with nothing else arriving, the connection is dead.
+            if (waiting >= this.idleMillis + this.probeTimeoutMillis && this.client.millisSinceLastFrame() >= this.idleMillis) {
+                this.client.close();
+            }
+            return;
+        }
+        if (this.client.millisSinceLastFrame() < this.idleMillis) return;
+        try {
+            this.client.request("groups").orTimeout(this.probeTimeoutMillis, TimeUnit.MILLISECONDS).whenComplete((reply, e) -> {
+                // Closing the socket makes the dispatcher's read fail, which starts the reconnect.
+                if (e != null && this.running && !this.reconnecting.get()) this.client.close();
+            });
+        } catch (IOException e) {
+            // Already disconnected, the dispatcher reports it.
+        }
+    }
+
+    private void connectionLost(IOException cause) {
+        if (!this.running || !this.client.canReconnect()) {
+            this.listener.onGaveUp(cause);
+            return;
+        }
+        if (!this.reconnecting.compareAndSet(false, true)) return;
+        // Whatever command the server was reading lines for ended with the connection.
+        this.probesPaused = false;
+        this.listener.onConnectionLost(cause);
+        Thread thread = new Thread(() -> reconnect(cause), "reconnect");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void reconnect(IOException cause) {
+        try {
+            for (int attempt = 1; this.running && (this.maxAttempts == 0 || attempt <= this.maxAttempts); attempt++) {
+                long delay = backoff(attempt);
+                this.listener.onReconnecting(attempt, delay);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (!this.running) return;
+                try {
+                    List<String> rejoined = resume();
+                    this.reconnecting.set(false);
+                    this.listener.onReconnected(rejoined);
+                    return;
+                } catch (IOException e) {
+                    cause = e;
+                }
+            }
+            if (this.running) this.listener.onGaveUp(cause);
+        } finally {
+            this.reconnecting.set(false);
+        }
+    }
+
+    long backoff(int attempt) {
+        // Exponential with half of each delay randomised, so clients dropped together do not come back together.
+        long delay = Math.min(this.maxDelayMillis, this.initialDelayMillis << Math.min(attempt - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private List<String> resume() throws IOException {
+        if (this.username == null) throw new IOException("No username to reconnect with");
+        this.client.reconnect(this.username);
+        this.client.startDispatcher(this.events);
+
+        // Every group goes back in one write; replies come back to us rather than to the application's handlers.
+        List<String> previous = getGroups();
+        ArrayList<String> commands = new ArrayList<>(previous.size());
+        for (String group : previous) commands.add("groupjoin " + group);
+        List<CompletableFuture<String>> replies = this.client.pipeline(commands);
+
+        ArrayList<String> rejoined = new ArrayList<>(previous.size());
+        for (int i = 0; i < replies.size(); i++) {
+            ProtocolEvent reply;
+            try {
+                reply = ProtocolParser.parse(replies.get(i).get(this.probeTimeoutMillis, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while rejoining groups");
+            } catch (ExecutionException | TimeoutException e) {
+                this.client.close();
+                throw new IOException("Could not rejoin " + previous.get(i), e);
+            }
+            // "You are already in" is an Error but still means we are a member.
+            if (reply instanceof ProtocolEvent.JoinAck || reply.getText().startsWith("You are already in ")) {
+                rejoined.add(previous.get(i));
+            } else {
+                synchronized (this.groups) {
+                    this.groups.remove(previous.get(i));
+                }
+            }
+        }
+        return rejoined;
+    }
+}
@@ -0,0 +1,240 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+public class ReplayDriver {
+    // How long a recorded reply waits for the replayed client to send the request it answers.
+    private static final long REPLY_WAIT_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private final List<WireRecorder.Record> records;
+    // 1 replays at the recorded pace, 2 twice as fast, 0 as fast as the client can take it.
+    private final double speed;
+    private final boolean gui;
+    private int unmatchedReplies;
+
+    public ReplayDriver(List<WireRecorder.Record> records, double speed, boolean gui) {
+        this.records = records;
+        this.speed = speed;
+        this.gui = gui;
+    }
+
+    public int getUnmatchedReplies() {
+        return this.unmatchedReplies;
+    }
+
+    public String run() throws IOException, InterruptedException {
+        // The recording is fed through the real framing, parsing and dispatch, and either the GUI's handlers or a
+        // dispatcher that only counts events. Nothing goes over the network.
+        ReplayStream stream = new ReplayStream(this.records, this.speed, this.gui);
+        SocketClient client = new SocketClient(stream, OutputStream.nullOutputStream());
+        client.startReplay();
+        stream.client = client;
+
+        int direct = 0;
+        for (WireRecorder.Record record : this.records) if (record.kind == WireRecorder.IN_DIRECT) direct++;
+
+        Map<String, Integer> eventCounts = new TreeMap<>();
+        // Building the Swing components is not part of what is being measured.
+        Gui view = this.gui ? new Gui(1280, 720) : null;
+        GroupDirectory[] directory = {GroupDirectory.parse("")};
+        long start = System.nanoTime();
+        if (this.gui) {
+            // Same steps as App, with the frames the application read itself taken from the recording.
+            for (int i = 0; i < direct; i++) {
+                String frame = client.readMessage();
+                ProtocolEvent event = ProtocolParser.parse(frame);
+                if (event instanceof ProtocolEvent.Welcome) view.setWelcome(frame);
+                if (event instanceof ProtocolEvent.GroupList) directory[0] = GroupDirectory.parse(frame);
+            }
+            Gui target = view;
+            // Joining and leaving are the user's doing, so they are replayed from the commands that were sent.
+            stream.userCommands = command -> {
+                String[] parts = command.split(" ");
+                if (parts.length != 2) return;
+                GroupDirectory.Group group = directory[0].find(parts[1]);
+                if (group == null) return;
+                if (parts[0].equals("groupjoin")) target.openGroup(group.name);
+                else if (parts[0].equals("groupleave")) target.closeGroup(group.name);
+            };
+            view.setGroups(directory[0], client);
+            view.startListenerThread(client, view);
+        } else {
+            for (int i = 0; i < direct; i++) eventCounts.merge(ProtocolParser.parse(client.readMessage()).getClass().getSimpleName(), 1, Integer::sum);
+            client.startDispatcher(new EventDispatcher()
+                    .tap(event -> eventCounts.merge(event.getClass().getSimpleName(), 1, Integer::sum))
+                    .onDisconnect(cause -> { }));
+        }
+
+        // Done once the recording has run out and every handler has had its turn.
+        stream.finished.await();
+        while (!client.inboundIdle()) LockSupport.parkNanos(1_000_000);
+        if (this.gui) {
+            try {
+                SwingUtilities.invokeAndWait(() -> { });
+            } catch (java.lang.reflect.InvocationTargetException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        this.unmatchedReplies = stream.unmatchedReplies;
+
+        int in = 0;
+        int out = 0;
+        for (WireRecorder.Record record : this.records) {
+            if (record.isInbound()) in++;
+            else out++;
+        }
+        long span = this.records.isEmpty() ? 0 : this.records.get(this.records.size() - 1).nanos;
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "recording: %d frames in, %d commands out over %.3f s%n", in, out, span / 1e9));
+        report.append(String.format(Locale.ROOT, "replay: %s through the %s, %.3f s, %.0f frames/s%n",
+                this.speed <= 0 ? "flat out" : this.speed + "x", this.gui ? "GUI" : "parser",
+                elapsed / 1e9, in / Math.max(elapsed / 1e9, 1e-9)));
+        report.append("replies without a matching request: ").append(this.unmatchedReplies).append(System.lineSeparator());
+        if (this.gui) {
+            for (GroupDirectory.Group group : directory[0].all()) {
+                GroupView groupView = view.view(group.name);
+                if (groupView == null) continue;
+                report.append(String.format(Locale.ROOT, "group %s: %d messages, %d members%n", group.name,
+                        groupView.getMessages().getSize(), groupView.getMembers().getSize()));
+            }
+        } else {
+            for (Map.Entry<String, Integer> entry : eventCounts.entrySet()) {
+                report.append("events ").append(entry.getKey()).append(": ").append(entry.getValue()).append(System.lineSeparator());
+            }
+        }
+        report.append(client.getMetrics().dump());
+        return report.toString();
+    }
+
+    private static class ReplayStream extends InputStream {
+        // Hands the client one recorded frame per read, at its recorded time scaled by the speed. Reads only come when
+        // every earlier frame has been handled, which is what lets a reply wait for its request.
+        private final List<WireRecorder.Record> records;
+        private final double speed;
+        private final boolean trackReplies;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile SocketClient client;
+        private volatile Consumer<String> userCommands = command -> { };
+        private int next;
+        private long startNanos = -1;
+        private byte[] frame = new byte[0];
+        private int position;
+        private int unmatchedReplies;
+
+        ReplayStream(List<WireRecorder.Record> records, double speed, boolean trackReplies) {
+            this.records = records;
+            this.speed = speed;
+            this.trackReplies = trackReplies;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (this.position == this.frame.length && !nextFrame()) {
+                this.finished.countDown();
+                return -1;
+            }
+            int count = Math.min(length, this.frame.length - this.position);
+            System.arraycopy(this.frame, this.position, buffer, offset, count);
+            this.position += count;
+            return count;
+        }
+
+        private boolean nextFrame() {
+            while (this.next < this.records.size()) {
+                WireRecorder.Record record = this.records.get(this.next++);
+                waitUntilDue(record);
+                if (!record.isInbound()) {
+                    if (record.kind == WireRecorder.OUT_UNTRACKED) this.userCommands.accept(record.text);
+                    continue;
+                }
+                byte type = LengthFrameDecoder.TYPE_ANNOUNCEMENT;
+                if (record.kind == WireRecorder.IN_DIRECT) type = LengthFrameDecoder.TYPE_REPLY;
+                if (record.kind == WireRecorder.IN_REPLY && this.trackReplies) {
+                    type = LengthFrameDecoder.TYPE_REPLY;
+                    if (!awaitRequest()) this.unmatchedReplies++;
+                }
+                this.frame = LengthFrameDecoder.encode(record.text, type);
+                this.position = 0;
+                return true;
+            }
+            return false;
+        }
+
+        private void waitUntilDue(WireRecorder.Record record) {
+            if (this.startNanos < 0) this.startNanos = System.nanoTime() - (long) (record.nanos / Math.max(this.speed, 1e-9));
+            if (this.speed <= 0) return;
+            long due = this.startNanos + (long) (record.nanos / this.speed);
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+        }
+
+        private boolean awaitRequest() {
+            // The replayed client sends its own requests as it reacts to earlier frames, the reply is held until the
+            // request it answers is waiting for it.
+            long deadline = System.nanoTime() + REPLY_WAIT_NANOS;
+            while (this.client.pendingReplies() == 0) {
+                if (System.nanoTime() > deadline) return false;
+                LockSupport.parkNanos(50_000);
+            }
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        // The GUI's handlers need the Swing components, never a display.
+        System.setProperty("java.awt.headless", "true");
+
+        String file = null;
+        double speed = 1;
+        boolean gui = true;
+        int repeat = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--speed": speed = Double.parseDouble(args[++i]); break;
+                case "--flat": speed = 0; break;
+                case "--parse": gui = false; break;
+                case "--repeat": repeat = Integer.parseInt(args[++i]); break;
+                default:
+                    if (file == null && !args[i].startsWith("--")) {
+                        file = args[i];
+                        break;
+                    }
+                    System.err.println("Usage: ReplayDriver <recording> [--speed factor | --flat] [--parse] [--repeat n]");
+                    System.exit(2);
+            }
+        }
+        if (file == null) {
+            System.err.println("Usage: ReplayDriver <recording> [--speed factor | --flat] [--parse] [--repeat n]");
+            System.exit(2);
+        }
+
+        List<WireRecorder.Record> records = WireRecorder.read(Path.of(file));
+        int unmatched = 0;
+        for (int i = 1; i <= repeat; i++) {
+            ReplayDriver driver = new ReplayDriver(records, speed, gui);
+            String report = driver.run();
+            if (repeat > 1) System.out.println("[run " + i + "]");
+            System.out.print(report);
+            unmatched += driver.getUnmatchedReplies();
+        }
+        // A replay that no longer lines up with its recording means the client now behaves differently.
+        System.exit(unmatched == 0 ? 0 : 1);
+    }
+}
@@ -1,17 +1,121 @@
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class SocketClient {
+    public interface MessageListener {
+        // Receives announcements and replies to commands that were sent without a future.
+        void onMessage(String message);
+
+        default void onDisconnect(IOException cause) {
+        }
+    }
+
     private Socket socket;
     private BufferedInputStream in;
-    private PrintWriter out;
+    private OutputStream out;
+    // Reused for every write, only touched with the write lock held.
+    private final ByteArrayOutputStream batch = new ByteArrayOutputStream(256);
+    private final byte[] frameHeader = new byte[LengthFrameDecoder.HEADER_BYTES];
+    // Swapped for a LengthFrameDecoder once binary framing has been negotiated.
+    private volatile FrameSource decoder = new FrameDecoder();
+    private final byte[] readBuffer = new byte[8192];
+    private volatile byte lastFrameType = FrameSource.TYPE_UNKNOWN;
+
+    // Length-prefixed framing is used when the server offers it in its first prompt and this client allows it.
+    private boolean binaryFramingAllowed = true;
+    private volatile boolean binaryOffered;
+    private volatile boolean binary;
+
+    // Set instead of the socket fields when the client runs on a shared NioTransport.
+    private NioSession session;
+    private LinkedBlockingQueue<String> inbox;
+    // Identity-compared marker queued when the session closes so readMessage() can report it.
+    private static final String CLOSED = new String("");
+
+    // Once the dispatcher runs, every command sent gets an entry here and replies are matched to them in order.
+    private final Object writeLock = new Object();
+    private final ConcurrentLinkedQueue<PendingReply> pending = new ConcurrentLinkedQueue<>();
+    private volatile Thread dispatcher;
+
+    private final ClientMetrics metrics = new ClientMetrics();
+
+    {
+        // Wired here rather than in a constructor so every way of building a client, a NIO session too, reports them.
+        this.metrics.setGauges(this.pending::size, this::queuedFrames);
+    }
+
+    // Reader thread only: read calls since the last frame was handed out.
+    private int readsSinceFrame;
+
+    // host:port of the server, null when running over plain streams. Names the local message journals.
+    private String serverName;
+    // What reconnect() needs to open the same kind of connection again.
+    private String host;
+    private int port;
+    private NioTransport transport;
+    private NioSession.FrameListener sessionListener;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+    // Cleared when the dispatcher loses the connection, so commands fail instead of vanishing into a dead socket.
+    private volatile boolean connected = true;
+    private volatile long lastFrameNanos = System.nanoTime();
+    // The CLI's local copies of messages it has read, by group name.
+    private final HashMap<String, MessageJournal> journals = new HashMap<>();
+    // The server's groups, fetched the first time a command names one, so an id and a name find the same journal.
+    private GroupDirectory directory;
+    // Journals checked against the server's history since the last (re)connect.
+    private final Set<String> verifiedJournals = ConcurrentHashMap.newKeySet();
+    // Built from every journal of this server on the first search, then fed each message that is read.
+    private MessageIndex searchIndex;
+    // Keeps the CLI session alive across dropped connections.
+    private ReconnectManager reconnects;
+    // Set from the console and the event handlers while the server waits for a post's subject or body.
+    private volatile boolean posting;
+    // Between the reader and the event handlers, so a burst of announcements waits in bounded memory.
+    private int inboundCapacity = 4096;
+    private EventPump.Overflow inboundOverflow = EventPump.Overflow.BLOCK;
+    private EventPump pump;
+    // Optional tap that writes every frame in and out to a recording.
+    private volatile WireRecorder recorder;
+    // Fed from a recording, whose frames say themselves how they were routed, see ReplayDriver.
+    private volatile boolean replaying;
+
+    private static final class PendingReply {
+        // future is null for commands sent with sendMessage(), their replies go to the event handlers.
+        final CompletableFuture<String> future;
+        final String commandType;
+        final long sentNanos;
+
+        PendingReply(CompletableFuture<String> future, String command, long sentNanos) {
+            this.future = future;
+            this.commandType = ClientMetrics.commandType(command);
+            this.sentNanos = sentNanos;
+        }
+    }
+
+    private SocketClient(String ip, int port) {
+        this.serverName = ip + ":" + port;
+        this.host = ip;
+        this.port = port;
+    }
 
     public SocketClient(String ip, int port, boolean doInitialRead) {
+        this(ip, port);
         // Connect to the server
         try {
-            this.socket = new Socket(ip, port);
-            this.in = new BufferedInputStream(this.socket.getInputStream());
-            this.out = new PrintWriter(this.socket.getOutputStream(), true);
+            openSocket();
         } catch (IOException e) {
             System.err.println("Connection error: " + e.getMessage());
             this.close();
@@ -26,91 +130,736 @@ public class SocketClient {
         }
     }
 
+    public static SocketClient connect(String ip, int port) throws IOException {
+        // Unlike the constructor, hands a refused connection to the caller instead of printing it.
+        SocketClient client = new SocketClient(ip, port);
+        client.openSocket();
+        return client;
+    }
+
+    public SocketClient(InputStream in, OutputStream out) {
+        // Run the client over streams that are already open, e.g. canned server output that needs no network.
+        this.in = new BufferedInputStream(in);
+        this.out = out;
+    }
+
+    public SocketClient(NioTransport transport, String ip, int port) throws IOException {
+        // Frames are queued for readMessage() so the client can be used exactly like a blocking one.
+        this.serverName = ip + ":" + port;
+        this.host = ip;
+        this.port = port;
+        this.transport = transport;
+        this.inbox = new LinkedBlockingQueue<>();
+        this.sessionListener = new NioSession.FrameListener() {
+            @Override
+            public void onFrame(NioSession session, String frame) {
+                inbox.add(checkCapabilities(frame));
+            }
+
+            @Override
+            public void onClosed(NioSession session, IOException cause) {
+                // A session replaced by reconnect() must not mark the new one closed.
+                if (session == SocketClient.this.session) inbox.add(CLOSED);
+            }
+        };
+        this.session = transport.connect(ip, port, this.sessionListener);
+        this.session.setMetrics(this.metrics);
+    }
+
+    public SocketClient(NioTransport transport, String ip, int port, NioSession.FrameListener listener) throws IOException {
+        // Frames go straight to the listener on the selector thread, readMessage() is not available in this mode.
+        this.serverName = ip + ":" + port;
+        this.session = transport.connect(ip, port, new NioSession.FrameListener() {
+            @Override
+            public void onFrame(NioSession session, String frame) {
+                listener.onFrame(session, checkCapabilities(frame));
+            }
+
+            @Override
+            public void onClosed(NioSession session, IOException cause) {
+                listener.onClosed(session, cause);
+            }
+        });
+        this.session.setMetrics(this.metrics);
+    }
+
     public String readMessage() throws IOException {
-        // Create a StringBuilder to store chunks of the message
-        StringBuilder message = new StringBuilder();
-        byte[] buffer = new byte[1024];
-        int bytesRead;
-        String chunk;
+        if (this.session != null) return recordDirect(takeFromInbox());
+
+        // Hand out frames that arrived together with an earlier one before reading any more from the socket
+        String frame = this.decoder.poll();
+        while (frame == null) {
+            int bytesRead = this.in.read(this.readBuffer);
+            if (bytesRead == -1) throw new EOFException("Server closed the connection");
+            this.metrics.bytesRead(bytesRead);
+            this.readsSinceFrame++;
+            try {
+                this.decoder.feed(this.readBuffer, 0, bytesRead);
+            } catch (IllegalStateException e) {
+                throw new IOException("Corrupt frame from server: " + e.getMessage());
+            }
+            frame = this.decoder.poll();
+        }
+        this.lastFrameType = this.decoder.lastType();
+        this.lastFrameNanos = System.nanoTime();
+        this.metrics.frameRead(this.readsSinceFrame);
+        this.readsSinceFrame = 0;
+        return recordDirect(checkCapabilities(frame));
+    }
+
+    private String recordDirect(String frame) {
+        // Frames the dispatcher reads are recorded once it knows where they went.
+        WireRecorder recorder = this.recorder;
+        if (recorder != null && this.dispatcher != Thread.currentThread()) recorder.record(WireRecorder.IN_DIRECT, this.lastFrameNanos, frame);
+        return frame;
+    }
+
+    private void recordSent(byte kind, List<String> commands) {
+        WireRecorder recorder = this.recorder;
+        if (recorder == null) return;
+        long now = System.nanoTime();
+        for (String command : commands) recorder.record(kind, now, command);
+    }
 
-        // Read the message in chunks until the <END> delimiter is found
-        while ((bytesRead = this.in.read(buffer)) != -1) {
-            // Add the chunk to the message
-            chunk = new String(buffer, 0, bytesRead);
-            message.append(chunk);
+    public void setRecorder(WireRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    void startReplay() {
+        // Replayed frames are always length-prefixed and typed by how they were routed when recorded: announcements
+        // and replies that went to the handlers come as announcements, replies that completed a future as replies.
+        // So only requests wait for a reply, anything else sent gets none.
+        this.decoder = new LengthFrameDecoder();
+        this.binary = true;
+        this.replaying = true;
+    }
+
+    int pendingReplies() {
+        return this.pending.size();
+    }
+
+    long oldestPendingMillis() {
+        // How long the oldest command still waiting for its reply has waited, -1 if none is.
+        PendingReply oldest = this.pending.peek();
+        return oldest == null ? -1 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.sentNanos);
+    }
+
+    public Executor getEventExecutor() {
+        // Runs work on the thread that handles events, e.g. a reply's follow-up requests. Before startDispatcher() there
+        // is no such thread, and no reply completes a future either.
+        EventPump pump = this.pump;
+        return pump != null ? pump : Runnable::run;
+    }
+
+    boolean inboundIdle() {
+        return this.pump == null || this.pump.isIdle();
+    }
+
+    public boolean canReconnect() {
+        return this.host != null && (this.transport == null || this.inbox != null);
+    }
 
-            // Check if the <END> delimiter is present
-            if (message.toString().contains("<END>")) break;
+    private void openSocket() throws IOException {
+        this.socket = new Socket();
+        this.socket.connect(new InetSocketAddress(this.host, this.port), HANDSHAKE_TIMEOUT_MILLIS);
+        // Lets the OS notice a peer that vanished without closing the connection.
+        this.socket.setKeepAlive(true);
+        this.in = new BufferedInputStream(this.socket.getInputStream());
+        this.out = this.socket.getOutputStream();
+    }
+
+    public void reconnect(String username) throws IOException {
+        // Replaces the connection in place, so everything holding on to this client keeps working, and answers the
+        // username prompt again. Senders wait on the write lock until the new connection is ready for them.
+        if (!canReconnect()) {
+            throw new IOException("Only clients that connected by address and read frames themselves can reconnect");
+        }
+        synchronized (this.writeLock) {
+            this.connected = false;
+            this.dispatcher = null;
+            close();
+            failPending(new IOException("Connection lost before the reply arrived"));
+            this.decoder = new FrameDecoder();
+            this.lastFrameType = FrameSource.TYPE_UNKNOWN;
+            this.binaryOffered = false;
+            this.binary = false;
+
+            if (this.transport != null) {
+                this.inbox.clear();
+                this.session = this.transport.connect(this.host, this.port, this.sessionListener);
+                this.session.setMetrics(this.metrics);
+            } else {
+                openSocket();
+            }
+            try {
+                if (!(ProtocolParser.parse(readHandshakeFrame()) instanceof ProtocolEvent.Prompt)) {
+                    throw new IOException("Server did not ask for a username");
+                }
+                writeCommands(List.of(username));
+                String reply = readHandshakeFrame();
+                if (!(ProtocolParser.parse(reply) instanceof ProtocolEvent.Welcome)) {
+                    // Usually the server has not noticed the old connection is gone and still holds the name.
+                    throw new IOException("Server did not take " + username + " back: " + reply.strip());
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+            this.connected = true;
         }
+    }
+
+    private String readHandshakeFrame() throws IOException {
+        // Like readMessage(), but a server that accepts the connection and then says nothing cannot stall reconnecting.
+        if (this.session == null) {
+            this.socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            try {
+                return readMessage();
+            } finally {
+                this.socket.setSoTimeout(0);
+            }
+        }
+        String frame;
+        try {
+            frame = this.inbox.poll(HANDSHAKE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the server");
+        }
+        if (frame == null) throw new SocketTimeoutException("Server did not answer");
+        if (frame == CLOSED) throw new EOFException("Server closed the connection");
+        this.lastFrameNanos = System.nanoTime();
+        return frame;
+    }
+
+    private void failPending(IOException cause) {
+        PendingReply reply;
+        while ((reply = this.pending.poll()) != null) {
+            if (reply.future != null) reply.future.completeExceptionally(cause);
+        }
+    }
+
+    private int queuedFrames() {
+        // Frames read but not yet handled by whoever reads them, approximate when asked from another thread.
+        return this.inbox != null ? this.inbox.size() : this.decoder.queued();
+    }
+
+    public ClientMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    public boolean isConnected() {
+        return this.connected;
+    }
 
-        // Remove the <END> delimiter before returning
-        return message.toString().replace("<END>", "");
+    public long millisSinceLastFrame() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.lastFrameNanos);
+    }
+
+    public byte lastFrameType() {
+        // Type of the frame readMessage() returned last, only known on a blocking connection using binary framing.
+        return this.lastFrameType;
+    }
+
+    private String checkCapabilities(String frame) {
+        // Until framing is settled, look for the server's offer and keep it out of what the caller sees.
+        if (this.binary || !frame.endsWith(LengthFrameDecoder.CAPABILITY)) return frame;
+        this.binaryOffered = true;
+        return frame.substring(0, frame.length() - LengthFrameDecoder.CAPABILITY.length());
+    }
+
+    public void setBinaryFramingAllowed(boolean allowed) {
+        // Has to be called before the username is sent; off keeps the text protocol even if the server offers more.
+        this.binaryFramingAllowed = allowed;
+    }
+
+    public boolean isBinaryFraming() {
+        return this.binary;
+    }
+
+    public String getServerName() {
+        return this.serverName;
+    }
+
+    private String takeFromInbox() throws IOException {
+        if (this.inbox == null) throw new IllegalStateException("Frames are delivered to the session listener");
+        String frame;
+        try {
+            frame = this.inbox.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the server");
+        }
+        if (frame == CLOSED) {
+            // Leave the marker in place so every later read fails the same way.
+            this.inbox.add(CLOSED);
+            throw new EOFException("Server closed the connection");
+        }
+        this.lastFrameNanos = System.nanoTime();
+        return frame;
     }
 
     public void sendMessage(String s) throws IOException {
-        this.out.println(s);
+        synchronized (this.writeLock) {
+            if (!this.connected) throw new IOException("Not connected to the server");
+            // The reply still has to take its place in line so later futures get the right frame.
+            if (this.dispatcher != null && !this.replaying) this.pending.add(new PendingReply(null, s, System.nanoTime()));
+            recordSent(WireRecorder.OUT_UNTRACKED, List.of(s));
+            writeCommands(List.of(s));
+        }
     }
 
-    public void loop() {
-        // Main processing loop for sending and receiving messages with the server
-        String message;
-        BufferedReader consoleReader = new BufferedReader((new InputStreamReader(System.in)));
+    public void sendBatch(List<String> commands) throws IOException {
+        // Several commands that belong together, e.g. grouppost with its subject and body, in one write that nothing
+        // else can get in between. Their replies go to the event handlers like sendMessage()'s.
+        if (commands.isEmpty()) return;
+        synchronized (this.writeLock) {
+            if (!this.connected) throw new IOException("Not connected to the server");
+            if (this.dispatcher != null && !this.replaying) {
+                long now = System.nanoTime();
+                for (String command : commands) this.pending.add(new PendingReply(null, command, now));
+            }
+            recordSent(WireRecorder.OUT_UNTRACKED, commands);
+            writeCommands(commands);
+        }
+    }
+
+    private void writeCommands(List<String> commands) throws IOException {
+        // Called with the write lock held. The whole batch is encoded into one buffer and leaves in a single write and
+        // flush, so a batch costs one syscall however many commands it has.
+        this.batch.reset();
+        // The first thing sent after the server offered binary framing (the username) switches both sides over.
+        if (this.binaryOffered && !this.binary && this.binaryFramingAllowed) negotiateBinary();
+        for (String command : commands) {
+            byte[] bytes = command.getBytes(StandardCharsets.UTF_8);
+            if (this.binary) {
+                LengthFrameDecoder.writeHeader(this.frameHeader, 0, bytes.length, LengthFrameDecoder.TYPE_COMMAND);
+                this.batch.write(this.frameHeader, 0, this.frameHeader.length);
+                this.batch.write(bytes, 0, bytes.length);
+            } else {
+                this.batch.write(bytes, 0, bytes.length);
+                this.batch.write('\n');
+            }
+        }
+        this.metrics.commandsSent(commands.size(), this.batch.size());
 
-        Thread serverListener = new Thread(() -> {
-            // Thread to listen for announcments, interrupt exectuion, display them, and continue
+        if (this.session != null) {
+            this.session.sendBytes(this.batch.toByteArray());
+            return;
+        }
+        try {
+            this.batch.writeTo(this.out);
+            this.out.flush();
+        } catch (IOException e) {
+            // Nothing more can be sent on this connection; closing it lets the reader and the reconnect logic know too.
+            close();
+            throw e;
+        }
+    }
+
+    private void negotiateBinary() {
+        // Nothing else is in flight at this point: the server waits for our answer to its prompt. The request goes out
+        // as a text line at the start of the same write as the username, and the decoder is swapped before either is
+        // sent so the first binary reply cannot be read as text.
+        byte[] line = (LengthFrameDecoder.NEGOTIATE + "\n").getBytes(StandardCharsets.UTF_8);
+        this.batch.write(line, 0, line.length);
+        if (this.session != null) {
+            this.session.useLengthFraming();
+        } else {
+            this.decoder = new LengthFrameDecoder();
+        }
+        this.binary = true;
+    }
+
+    public CompletableFuture<String> request(String command) throws IOException {
+        return pipeline(List.of(command)).get(0);
+    }
+
+    public List<CompletableFuture<String>> pipeline(List<String> commands) throws IOException {
+        // Send every command in a single write and hand back one future per command, completed in order.
+        ArrayList<CompletableFuture<String>> futures = new ArrayList<>(commands.size());
+        if (commands.isEmpty()) return futures;
+        if (this.dispatcher == null) throw new IllegalStateException("startDispatcher() has to be called before pipelining");
+        synchronized (this.writeLock) {
+            if (!this.connected) throw new IOException("Not connected to the server");
+            long now = System.nanoTime();
+            for (String command : commands) {
+                CompletableFuture<String> future = new CompletableFuture<>();
+                futures.add(future);
+                this.pending.add(new PendingReply(future, command, now));
+            }
+            recordSent(WireRecorder.OUT_TRACKED, commands);
+            writeCommands(commands);
+        }
+        return futures;
+    }
+
+    public void startDispatcher(MessageListener listener) {
+        startDispatcher(new EventDispatcher()
+                .otherwise(event -> listener.onMessage(event.getText()))
+                .onDisconnect(listener::onDisconnect));
+    }
+
+    public void setInboundQueue(int capacity, EventPump.Overflow overflow) {
+        // Takes effect the next time a dispatcher is started with a different EventDispatcher.
+        this.inboundCapacity = capacity;
+        this.inboundOverflow = overflow;
+    }
+
+    public void startDispatcher(EventDispatcher events) {
+        // Take over reading: each frame is parsed once, replies complete their futures, everything else is handed to
+        // the event consumer. A restart after reconnect() keeps the same consumer and whatever it has not handled yet.
+        if (this.pump == null || this.pump.getEvents() != events) {
+            if (this.pump != null) this.pump.stop();
+            // A replay has to see every recorded frame, so it never drops any.
+            this.pump = new EventPump(events, this.inboundCapacity, this.replaying ? EventPump.Overflow.BLOCK : this.inboundOverflow);
+            this.pump.setMetrics(this.metrics);
+            this.metrics.setInboundBacklog(this.pump::backlog);
+            this.pump.start();
+        }
+        EventPump pump = this.pump;
+        Thread thread = new Thread(() -> {
             try {
                 while (true) {
-                    String serverMessage = readMessage().replaceAll("\t", "");
-                    if (serverMessage == null) continue; 
-                    System.out.println("\n" + serverMessage);
-                    System.out.print("> "); // Reprint prompt for user input
+                    String message = readMessage();
+                    ProtocolEvent event = ProtocolParser.parse(message);
+                    // With binary framing the server says which frames are announcements. Only a server that cannot
+                    // frame leaves it to the text, where a body that reads like an announcement is taken for one.
+                    byte type = this.lastFrameType;
+                    boolean announcement = type == FrameSource.TYPE_UNKNOWN ? event.isAnnouncement() : type == LengthFrameDecoder.TYPE_ANNOUNCEMENT;
+                    this.metrics.queued(queuedFrames());
+                    WireRecorder recorder = this.recorder;
+                    if (announcement) {
+                        if (recorder != null) recorder.record(WireRecorder.IN_ANNOUNCEMENT, this.lastFrameNanos, message);
+                        this.metrics.announcementReceived();
+                        pump.publish(event);
+                        continue;
+                    }
+                    PendingReply reply = this.pending.poll();
+                    if (reply != null) this.metrics.replyReceived(reply.commandType, System.nanoTime() - reply.sentNanos);
+                    boolean tracked = reply != null && reply.future != null;
+                    if (recorder != null) recorder.record(tracked ? WireRecorder.IN_REPLY : WireRecorder.IN_UNTRACKED, this.lastFrameNanos, message);
+                    if (!tracked) pump.publish(event);
+                    else reply.future.complete(message);
                 }
             } catch (IOException e) {
+                synchronized (this.writeLock) {
+                    // A dispatcher left over from before reconnect() has nothing to say about the new connection.
+                    if (this.dispatcher != Thread.currentThread()) return;
+                    this.connected = false;
+                    failPending(e);
+                }
+                events.disconnected(e);
+            }
+        }, "server-dispatcher");
+        thread.setDaemon(true);
+        synchronized (this.writeLock) {
+            this.dispatcher = thread;
+        }
+        thread.start();
+    }
+
+    public static boolean isAnnouncement(String message) {
+        // Anything the server pushes without being asked: joins, leaves, posts and the empty frame that trails a post.
+        return ProtocolParser.parse(message).isAnnouncement();
+    }
+
+    public void loop() {
+        // Main processing loop for sending and receiving messages with the server
+        String message;
+        BufferedReader consoleReader = new BufferedReader((new InputStreamReader(System.in)));
+
+        // The dispatcher thread listens for announcments, interrupts exectuion, displays them, and continues
+        EventDispatcher events = new EventDispatcher()
+                .on(ProtocolEvent.Empty.class, event -> { })
+                .on(ProtocolEvent.PostAnnouncement.class, post -> printFromServer("New message " + post.messageId + " in "
+                        + post.group + " from " + post.from + " (" + post.time + "): " + post.subject
+                        + "\nRead it with: groupmessage " + post.group + " " + post.messageId))
+                .on(ProtocolEvent.MemberJoined.class, joined -> printFromServer(joined.user + " has joined " + joined.group + "!"))
+                .on(ProtocolEvent.MemberLeft.class, left -> printFromServer(left.user + " has left " + left.group + "."))
+                .otherwise(event -> printFromServer(event.getText().replace("\t", "")))
+                .tap(event -> {
+                    if (event instanceof ProtocolEvent.Prompt) setPosting(true);
+                    else if (event instanceof ProtocolEvent.PostAck || event instanceof ProtocolEvent.Error) setPosting(false);
+                });
+        this.reconnects = new ReconnectManager(this, events, new ReconnectManager.Listener() {
+            @Override
+            public void onConnectionLost(IOException cause) {
+                setPosting(false);
+                printFromServer("Lost the connection to the server (" + cause.getMessage() + "), reconnecting...");
+            }
+
+            @Override
+            public void onReconnected(List<String> groups) {
+                printFromServer("Reconnected" + (groups.isEmpty() ? "." : ", back in " + String.join(", ", groups) + "."));
+                // The server may have restarted with a different history.
+                verifiedJournals.clear();
+                reportMissed(groups);
+            }
+
+            @Override
+            public void onGaveUp(IOException cause) {
                 System.err.println("You left the server.");
                 System.out.print("> ");
             }
         });
-
-        serverListener.start();
+        this.reconnects.start();
 
         try {
             System.out.print("> "); // Prompt for user to enter commands
             while (true) {
                 // Read a line (command) from the terminal.
                 message = consoleReader.readLine();
-                
-                // Check that the use gave a command.
-                if (message.isBlank()) continue;
 
                 // User calls exit
                 if (message.equalsIgnoreCase("exit")) {
                     break;
                 }
 
+                // While a post waits for its subject and body, every line is one of them, whatever it starts with.
+                if (this.posting) {
+                    this.sendMessage(message);
+                    continue;
+                }
+
+                // Check that the use gave a command.
+                if (message.isBlank()) continue;
+
+                // Messages that were read before are answered from the local journal without asking the server.
+                String[] parts = message.split(" ");
+                if (parts.length == 3 && parts[0].equals("groupmessage")) {
+                    readGroupMessage(parts[1], parts[2], message);
+                    continue;
+                }
+                if (parts.length == 2 && parts[0].equals("message")) {
+                    readGroupMessage("public", parts[1], message);
+                    continue;
+                }
+                // Searching only looks at messages that were read before, it never asks the server.
+                if (parts[0].equals("search")) {
+                    search(message.substring(parts[0].length()).strip());
+                    continue;
+                }
+
                 // If we get to this point the user gave a command we need to send to the server, sending.
+                if (parts[0].equals("grouppost") || parts[0].equals("post")) setPosting(true);
                 this.sendMessage(message);
             }
         } catch (IOException e) {
             System.err.println("Error reading the message from the terminal: " + e.getMessage());
+        } finally {
+            this.reconnects.close();
+            closeJournals();
+        }
+    }
+
+    private void setPosting(boolean posting) {
+        // A grouppost takes the next two lines as its subject and body. Until the post is in or refused, neither the
+        // idle probe nor a line the CLI would otherwise answer itself may take their place.
+        this.posting = posting;
+        this.reconnects.setProbesPaused(posting);
+    }
+
+    private void reportMissed(List<String> groups) {
+        // Say what was posted while we were gone, in one round trip for all groups.
+        ArrayList<String> commands = new ArrayList<>(groups.size());
+        for (String group : groups) commands.add("usergroupinfo " + group);
+        try {
+            List<CompletableFuture<String>> replies = pipeline(commands);
+            for (int i = 0; i < replies.size(); i++) {
+                int seen = this.reconnects.lastSeen(groups.get(i));
+                replies.get(i).thenAccept(reply -> {
+                    ProtocolEvent event = ProtocolParser.parse(reply);
+                    if (!(event instanceof ProtocolEvent.GroupInfo)) return;
+                    ProtocolEvent.GroupInfo info = (ProtocolEvent.GroupInfo) event;
+                    int first = Math.max(seen + 1, Math.max(info.cutoff, 0));
+                    if (seen < 0 || first >= info.messageCount) return;
+                    printFromServer((info.messageCount - first) + " new message(s) in " + info.group + " while you were away."
+                            + "\nRead them with: groupmessage " + info.group + " " + first
+                            + (info.messageCount - 1 > first ? " to " + (info.messageCount - 1) : ""));
+                });
+            }
+        } catch (IOException e) {
+            System.err.println("Error sending message to server: " + e.getMessage());
+        }
+    }
+
+    private void readGroupMessage(String group, String index, String command) throws IOException {
+        int id;
+        try {
+            id = Integer.parseInt(index);
+        } catch (NumberFormatException e) {
+            id = -1;
+        }
+        // Negative indexes count from the end on the server, so only plain ids can be looked up locally.
+        String name = id < 0 ? null : groupName(group);
+        MessageJournal journal = name == null ? null : journal(name);
+        if (journal != null) verifyJournals(List.of(name));
+        String stored = journal == null ? null : journal.read(id);
+        if (stored != null) {
+            System.out.println(stored.replace("\t", ""));
+            System.out.print("> ");
+            return;
+        }
+        int messageId = id;
+        request(command).thenAccept(reply -> {
+            if (journal != null && !(ProtocolParser.parse(reply) instanceof ProtocolEvent.Error)) {
+                try {
+                    journal.append(messageId, reply);
+                    if (this.searchIndex != null) this.searchIndex.add(name, messageId, reply);
+                } catch (IOException e) {
+                    System.err.println("Error saving the message locally: " + e.getMessage());
+                }
+            }
+            printFromServer(reply.replace("\t", ""));
+        });
+    }
+
+    private String groupName(String group) {
+        // The server takes a group's id as well as its name, journals are only ever kept under the name. Null if the
+        // server has no such group or its group list could not be fetched; the command then just goes to the server.
+        if (this.directory == null) {
+            try {
+                GroupDirectory directory = GroupDirectory.parse(request("groups").get(HANDSHAKE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+                if (directory.size() > 0) this.directory = directory;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (IOException | ExecutionException | TimeoutException e) {
+                return null;
+            }
+            if (this.directory == null) return null;
+        }
+        GroupDirectory.Group found = this.directory.find(group);
+        return found == null ? null : found.name;
+    }
+
+    private MessageJournal journal(String group) {
+        if (this.serverName == null) return null;
+        if (this.journals.containsKey(group)) return this.journals.get(group);
+        MessageJournal journal = null;
+        try {
+            journal = MessageJournal.open(MessageJournal.directoryFor(this.serverName), group);
+        } catch (IOException e) {
+            System.err.println("Messages from " + group + " will not be kept locally: " + e.getMessage());
+        }
+        // A group whose journal cannot be opened is remembered as null so it is not retried on every read.
+        this.journals.put(group, journal);
+        if (journal != null && this.searchIndex != null) index(group, journal);
+        return journal;
+    }
+
+    private void verifyJournals(List<String> groups) {
+        // Like the GUI, a journal holding as many messages as the server has, or more, is from an earlier history
+        // (e.g. the server restarted) and is cleared so its ids are fetched again. One round trip for all of them; a
+        // journal whose check gets no answer is kept and checked again next time.
+        ArrayList<String> unchecked = new ArrayList<>();
+        ArrayList<String> commands = new ArrayList<>();
+        for (String group : groups) {
+            if (this.journals.get(group) == null || this.verifiedJournals.contains(group)) continue;
+            unchecked.add(group);
+            commands.add("usergroupinfo " + group);
+        }
+        if (commands.isEmpty()) return;
+        try {
+            List<CompletableFuture<String>> replies = pipeline(commands);
+            for (int i = 0; i < replies.size(); i++) {
+                String group = unchecked.get(i);
+                ProtocolEvent event = ProtocolParser.parse(replies.get(i).get(HANDSHAKE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+                MessageJournal journal = this.journals.get(group);
+                if (event instanceof ProtocolEvent.GroupInfo && ((ProtocolEvent.GroupInfo) event).messageCount <= journal.highestId()) {
+                    journal.clear();
+                    if (this.searchIndex != null) this.searchIndex.removeGroup(group);
+                }
+                this.verifiedJournals.add(group);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | ExecutionException | TimeoutException e) {
+            System.err.println("Could not check the stored messages against the server: " + e.getMessage());
+        }
+    }
+
+    private void search(String query) {
+        if (this.searchIndex == null) {
+            File[] files = this.serverName == null ? null
+                    : MessageJournal.directoryFor(this.serverName).toFile().listFiles((dir, name) -> name.endsWith(".journal"));
+            if (files != null) {
+                for (File file : files) journal(file.getName().substring(0, file.getName().length() - ".journal".length()));
+            }
+            verifyJournals(new ArrayList<>(this.journals.keySet()));
+            this.searchIndex = new MessageIndex();
+            for (String group : this.journals.keySet()) {
+                MessageJournal journal = this.journals.get(group);
+                if (journal != null) index(group, journal);
+            }
+        }
+        verifyJournals(new ArrayList<>(this.journals.keySet()));
+        try {
+            this.searchIndex.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        List<MessageIndex.Hit> hits = this.searchIndex.search(query, 20);
+        if (hits.isEmpty()) System.out.println("No stored message matches \"" + query + "\".");
+        for (MessageIndex.Hit hit : hits) {
+            // One line per hit, the body squeezed onto it.
+            String body = this.journals.get(hit.group).read(hit.messageId);
+            String text = body == null ? "" : body.strip().replaceAll("\\s+", " ");
+            if (text.length() > 100) text = text.substring(0, 97) + "...";
+            System.out.println(hit.group + " #" + hit.messageId + ": " + text);
         }
+        System.out.print("> ");
+    }
+
+    private void index(String group, MessageJournal journal) {
+        journal.forEach((id, body) -> this.searchIndex.add(group, id, body));
+    }
+
+    private void closeJournals() {
+        for (MessageJournal journal : this.journals.values()) {
+            try {
+                if (journal != null) journal.close();
+            } catch (IOException e) {
+                System.err.println("Error closing the message journal: " + e.getMessage());
+            }
+        }
+        this.journals.clear();
+    }
+
+    private static void printFromServer(String message) {
+        System.out.println("\n" + message);
+        System.out.print("> "); // Reprint prompt for user input
     }
 
     public void close() {
         // Close the connection
+        if (this.session != null) {
+            this.session.close();
+            return;
+        }
+        try {
+            if (this.in != null) this.in.close();
+        } catch (IOException e) {
+            System.err.println("Error closing the connection: " + e.getMessage());
+        }
         try {
-            this.in.close();
+            if (this.out != null) this.out.close();
         } catch (IOException e) {
             System.err.println("Error closing the connection: " + e.getMessage());
         }
-        this.out.close();
         try {
-            this.socket.close();
+            if (this.socket != null) this.socket.close();
         } catch (IOException e) {
             System.err.println("Error closing the connection: " + e.getMessage());
         }
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // Non-interactive: commands from a script or a pipe, one JSON line per reply and announcement.
+        if (args.length > 0 && args[0].equals("--batch")) System.exit(BatchClient.start(args, 1));
+
         while (true) {
         String message = "";
         String ip = "";
@@ -156,8 +905,11 @@ public class SocketClient {
                 message = "";
             }
         }
+        ClientMetrics.export(client.getMetrics(), client.getServerName());
+        WireRecorder.export(client);
         client.loop();
         client.close();
+        client.getMetrics().unregister();
     }
     }
 }
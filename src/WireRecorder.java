@@ -0,0 +1,159 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class WireRecorder implements Closeable {
+    // File layout: magic, version and the wall-clock time recording started, then one record per frame: a kind byte,
+    // the nanoseconds since the previous record and the payload length as varints, and the UTF-8 payload.
+    private static final int MAGIC = 0x47575243;
+    private static final int VERSION = 1;
+
+    // Inbound frames, by where the client sent them: read by the caller itself before any dispatcher ran, pushed by
+    // the server, completing a request()'s future, or a reply handed to the event handlers.
+    public static final byte IN_DIRECT = 0;
+    public static final byte IN_ANNOUNCEMENT = 1;
+    public static final byte IN_REPLY = 2;
+    public static final byte IN_UNTRACKED = 3;
+    // Outbound commands, sent with request()/pipeline() or with sendMessage()/sendBatch().
+    public static final byte OUT_TRACKED = 4;
+    public static final byte OUT_UNTRACKED = 5;
+
+    public static final class Record {
+        public final byte kind;
+        // Since the first record.
+        public final long nanos;
+        public final String text;
+
+        Record(byte kind, long nanos, String text) {
+            this.kind = kind;
+            this.nanos = nanos;
+            this.text = text;
+        }
+
+        public boolean isInbound() {
+            return this.kind < OUT_TRACKED;
+        }
+    }
+
+    private final Path path;
+    private final DataOutputStream out;
+    private long lastNanos = Long.MIN_VALUE;
+    private int records;
+    private boolean failed;
+
+    private WireRecorder(Path path, OutputStream out) {
+        this.path = path;
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+    }
+
+    public static WireRecorder create(Path path) throws IOException {
+        WireRecorder recorder = new WireRecorder(path, Files.newOutputStream(path));
+        recorder.out.writeInt(MAGIC);
+        recorder.out.writeByte(VERSION);
+        recorder.out.writeLong(System.currentTimeMillis());
+        return recorder;
+    }
+
+    public static void export(SocketClient client) {
+        // Records the session to the file named by -Dgroupchat.record=..., flushed when the JVM exits.
+        String file = System.getProperty("groupchat.record");
+        if (file == null || file.isBlank()) return;
+        try {
+            WireRecorder recorder = create(Path.of(file));
+            client.setRecorder(recorder);
+            Runtime.getRuntime().addShutdownHook(new Thread(recorder::close));
+        } catch (IOException e) {
+            System.err.println("Could not record to " + file + ": " + e.getMessage());
+        }
+    }
+
+    public synchronized void record(byte kind, long nanos, String text) {
+        // Called from the reader and from senders, whose clocks were read before they got here, so a record can be a
+        // little older than the previous one; it is stored as simultaneous rather than going back in time.
+        if (this.failed) return;
+        try {
+            long delta = this.lastNanos == Long.MIN_VALUE ? 0 : Math.max(0, nanos - this.lastNanos);
+            this.lastNanos = Math.max(this.lastNanos, nanos);
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            this.out.writeByte(kind);
+            writeVarLong(this.out, delta);
+            writeVarLong(this.out, bytes.length);
+            this.out.write(bytes);
+            this.records++;
+        } catch (IOException e) {
+            // Never worth breaking the session over, the recording just ends here.
+            this.failed = true;
+            System.err.println("Stopped recording to " + this.path + ": " + e.getMessage());
+        }
+    }
+
+    public synchronized int size() {
+        return this.records;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            System.err.println("Error closing the recording " + this.path + ": " + e.getMessage());
+        }
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Corrupt recording: varint too long");
+    }
+
+    public static List<Record> read(Path path) throws IOException {
+        // The whole recording, in order. A record cut short by a crash ends it.
+        ArrayList<Record> records = new ArrayList<>();
+        try (InputStream file = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file, 64 * 1024))) {
+            if (in.readInt() != MAGIC) throw new IOException(path + " is not a recording");
+            int version = in.readUnsignedByte();
+            if (version != VERSION) throw new IOException("Unsupported recording version " + version);
+            in.readLong();
+            long nanos = 0;
+            while (true) {
+                int kind = in.read();
+                if (kind < 0) break;
+                try {
+                    nanos += readVarLong(in);
+                    long length = readVarLong(in);
+                    if (length > LengthFrameDecoder.MAX_FRAME_BYTES) throw new IOException("Corrupt recording: frame of " + length + " bytes");
+                    byte[] bytes = new byte[(int) length];
+                    in.readFully(bytes);
+                    records.add(new Record((byte) kind, nanos, new String(bytes, StandardCharsets.UTF_8)));
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+        }
+        return records;
+    }
+}
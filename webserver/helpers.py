@@ -2,6 +2,7 @@ from datetime import datetime
 from functools import partialmethod
 from typing import List, Optional, Set, Dict, Tuple, Sequence
 from socketserver import ThreadingMixIn, TCPServer, BaseRequestHandler, BaseServer
+import struct
 import threading
 from socket import socket as Socket
 
@@ -43,6 +44,16 @@ class ThreadedTCPServer(ThreadingMixIn, TCPServer):
     pass
 
 
+# Length-prefixed framing, the same as the Java client and server use: a 4-byte big-endian payload length, a 1-byte
+# frame type, then the UTF-8 payload. A client that answers the first username prompt's capability line with
+# NEGOTIATE gets every frame typed, so it never has to guess from the text whether a frame is an announcement.
+CAPABILITY = "\n#caps: binary"
+NEGOTIATE = "#binary"
+TYPE_REPLY = 0
+TYPE_ANNOUNCEMENT = 1
+FRAME_HEADER = struct.Struct(">IB")
+
+
 class ThreadedTCPRequestHandler(BaseRequestHandler):
     # Define the groups available to users on the server. This lock will be used to ensure no simultaneous access.
     group_lock = threading.Lock()
@@ -77,23 +88,63 @@ class ThreadedTCPRequestHandler(BaseRequestHandler):
     client_lock = threading.Lock()
 
     def __init__(self, request: Socket, client_address, server: BaseServer):
+        # BaseRequestHandler runs handle() from its constructor, so whatever handle() needs is set before calling it
+        self._binary = False
+        # Announcements are written by other clients' threads, one frame must not land in the middle of another
+        self._send_lock = threading.Lock()
         super().__init__(request, client_address, server)
         self.username = None  # The username for the connected client
         self.message_cutoff = None  # Used to keep track of the "last two message" aspect
         self.my_groups = None
 
+    def _recv_line(self) -> str:
+        # Commands are newline terminated, so reading whole lines keeps pipelined commands from being merged together
+        if self._binary:
+            header = self._reader.read(FRAME_HEADER.size)
+            if len(header) < FRAME_HEADER.size:
+                raise ConnectionResetError("Client disconnected")
+            length, _ = FRAME_HEADER.unpack(header)
+            payload = self._reader.read(length)
+            if len(payload) < length:
+                raise ConnectionResetError("Client disconnected")
+            return payload.decode()
+        line = self._reader.readline()
+        if not line:
+            raise ConnectionResetError("Client disconnected")
+        return line.decode().rstrip("\r\n")
+
+    def _send(self, *frames: str, frame_type: int = TYPE_REPLY):
+        # All frames leave in one write, so nothing sent from another thread can come between them
+        if self._binary:
+            data = b"".join(FRAME_HEADER.pack(len(payload), frame_type) + payload
+                            for payload in (frame.encode() for frame in frames))
+        else:
+            data = "".join(f"{frame}<END>" for frame in frames).encode()
+        with self._send_lock:
+            self.request.sendall(data)
+
     def handle(self):
+        self._reader = self.request.makefile("rb")
+        prompt = "Enter username:" + CAPABILITY
         while True:
             # Loop to have every user choose a unique username
-            self.request.sendall("Enter username:<END>".encode())
-            username = self.request.recv(1024).strip().decode()
+            self._send(prompt)
+            # Only the first prompt offers binary framing, a client that wants it answers before sending its name
+            prompt = "Enter username:"
+            try:
+                username = self._recv_line().strip()
+                if username == NEGOTIATE and not self._binary:
+                    self._binary = True
+                    username = self._recv_line().strip()
+            except ConnectionError:
+                return
             with self.user_lock:
                 if username not in self.server_users:
                     self.server_users.add(username)
-                    self.request.sendall(f"Welcome to the server, {username}<END>".encode())
+                    self._send(f"Welcome to the server, {username}")
                     break
                 else:
-                    self.request.sendall(f"{username} is already in the server, please choose another username.\n<END>".encode())
+                    self._send(f"{username} is already in the server, please choose another username.\n")
 
         # Ensures that a user may not access any message in a group that they are not a part of
         self.message_cutoff = {g: -2 for g in self.available_groups}
@@ -106,7 +157,7 @@ class ThreadedTCPRequestHandler(BaseRequestHandler):
         try:
             while True:
                 # Loop to accept and serve commands from clients
-                command: str = self.request.recv(1024).decode()
+                command: str = self._recv_line()
 
                 # Splitting the command into the named command and the arguments passed to it
                 method, *args = command.replace("\n", "").split(" ")
@@ -118,15 +169,15 @@ class ThreadedTCPRequestHandler(BaseRequestHandler):
                     getattr(self, method)(*args)
                 except AttributeError:
                     # If the provided command does not exist
-                    self.request.sendall("Invalid command!<END>".encode())
+                    self._send("Invalid command!")
                 except TypeError:
                     # If the arguments to the command are invalid
-                    self.request.sendall(f"Invalid arguments for {method}!<END>".encode())
+                    self._send(f"Invalid arguments for {method}!")
                 except GroupError:
-                    self.request.sendall(f"Group does not exist!<END>".encode())
+                    self._send("Group does not exist!")
                 except Exception:
                     # If some other error occurred (typically inside the command's function)
-                    self.request.sendall("An error has occurred, please try again.<END>".encode())
+                    self._send("An error has occurred, please try again.")
 
         except Exception as e:
             # For the client leaving the server for any reason
@@ -137,13 +188,13 @@ class ThreadedTCPRequestHandler(BaseRequestHandler):
             with self.client_lock:
                 self.clients.pop(self.username)
 
-    def _announce(self, message: str, users: Set[str], sender: str):
+    def _announce(self, message: str, users: Set[str], sender: str, *more: str):
         # Sending messages to users
         for user in users:
             if user == sender:
                 # Don't really need to announce it to the user who sends it
                 continue
-            self.clients[user].request.sendall(f"{message}<END>".encode())
+            self.clients[user]._send(message, *more, frame_type=TYPE_ANNOUNCEMENT)
 
     def get_group(self, groupname: str) -> Tuple[Group, str]:
         try:
@@ -165,7 +216,7 @@ class ThreadedTCPRequestHandler(BaseRequestHandler):
         # Joining a group
         group, groupname = self.get_group(groupname)
         if self.username in group.users:
-            self.request.sendall(f"You are already in {groupname}!<END>".encode())
+            self._send(f"You are already in {groupname}!")
             return
 
         with self.group_lock:
@@ -174,7 +225,7 @@ class ThreadedTCPRequestHandler(BaseRequestHandler):
             # Allowing the user to access the last and second to last most recently added bulletin messages
             self.my_groups.add(groupname)
             self.message_cutoff[groupname] = group.max_idx() - 1
-            self.request.sendall(f"You have joined {groupname}! <END>".encode())
+            self._send(f"You have joined {groupname}! ")
 
         self._announce(f"{self.username} has joined {groupname}!", group.users, self.username)
 
@@ -186,18 +237,18 @@ class ThreadedTCPRequestHandler(BaseRequestHandler):
         message_idx = int(message_idx)
         if self.username not in group.users:
             # The user is not a part of the group
-            self.request.sendall(f"Cannot access messages from {groupname}. Consider joining the group?<END>".encode())
+            self._send(f"Cannot access messages from {groupname}. Consider joining the group?")
             return
         if not message_idx >= self.message_cutoff[groupname]:
             # The user is trying to access a message that was added more than 2 posts ago
-            self.request.sendall(f"Sorry, message {message_idx} cannot be accessed.<END>".encode())
+            self._send(f"Sorry, message {message_idx} cannot be accessed.")
             return
         if message_idx >= len(group.bulletin):
             # The user is trying to access messages with indices that do not yet exist
-            self.request.sendall(f"Message {message_idx} does not exist.<END>".encode())
+            self._send(f"Message {message_idx} does not exist.")
             return
         body = group[message_idx]
-        self.request.send(f"{body}<END>".encode())
+        self._send(body)
 
     message = partialmethod(groupmessage, "public")
 
@@ -207,22 +258,20 @@ class ThreadedTCPRequestHandler(BaseRequestHandler):
         # TODO: Find out all how to send all necessary broadcast info to all users
         if self.username not in group.users:
             # The user is not in the group
-            self.request.sendall(f"Cannot post to group {groupname}. Consider joining the group?<END>".encode())
+            self._send(f"Cannot post to group {groupname}. Consider joining the group?")
             return
         # Providing separate prompts for subject and body
-        self.request.sendall("Enter message subject:<END>".encode())
-        message_subject = self.request.recv(1024).decode()
-        message_subject = message_subject.replace("\n", "")  # Java client adds newlines to everything, removing them
+        self._send("Enter message subject:")
+        message_subject = self._recv_line()
 
-        self.request.sendall("Enter message body:<END>".encode())
-        message_body = self.request.recv(1024).decode()
-        message_body = message_body.replace("\n", "")
+        self._send("Enter message body:")
+        message_body = self._recv_line()
 
         with self.group_lock:
             # Adding the message
             group.add_message(message_body)
             message_idx = group.max_idx()
-        self.request.sendall("Message posted!<END>".encode())
+        self._send("Message posted!")
         # Announcing the message to all group members
         now = datetime.now().strftime("%Y-%m-%d %H:%M:%S")
         announcement = (f"Message ID: {message_idx}\n"
@@ -230,22 +279,19 @@ class ThreadedTCPRequestHandler(BaseRequestHandler):
                         f"From: {self.username}\n"
                         f"Time: {now}\n"
                         f"Subject: {message_subject}\n"
-                        f"Group: {groupname}\n"
-                        f"<END>")
-        self._announce(announcement, group.users, self.username)
+                        f"Group: {groupname}\n")
+        # Followed by the empty frame clients have always received after a post announcement
+        self._announce(announcement, group.users, self.username, "")
 
     post = partialmethod(grouppost, "public")
 
     def groupusers(self, groupname: str):
-        # TODO: This sends nothing if the user is in no groups
         group, groupname = self.get_group(groupname)
 
-        # Displaying the users within a group
-        users = ("\n".join(group.users))
-        users = users + "<END>"
-        if users:
-            self.request.sendall(users.encode())
-            return
+        # Displaying the users within a group. Every command gets a reply, clients match them up in order, and an
+        # empty one would read as the empty frame that follows a post announcement.
+        users = ("\n".join(group.users)) or f"No users in {groupname}."
+        self._send(users)
 
     users = partialmethod(groupusers, "public")
 
@@ -255,14 +301,13 @@ class ThreadedTCPRequestHandler(BaseRequestHandler):
             message.append(f"Group name: {g_key}, Group ID: {g_id}")
 
         message = "\n".join(message)
-        message += "<END>"
-        self.request.sendall(message.encode())
+        self._send(message)
 
     def groupleave(self, groupname: str):
         group, groupname = self.get_group(groupname)
         # Leaving a group
         self._leave(groupname)
-        self.request.sendall(f"Successfully left '{groupname}'<END>".encode())
+        self._send(f"Successfully left '{groupname}'")
         announcement = f"{self.username} has left the {groupname} group!\n"
         self._announce(announcement, group.users, self.username)
 
@@ -274,9 +319,9 @@ class ThreadedTCPRequestHandler(BaseRequestHandler):
                 f"Group: {groupname}\n"\
                 f"Users: [{', '.join(group.users)}]\n"\
                 f"Messages: {len(group)}\n"\
-                f"Cutoff: {self.message_cutoff[groupname]}\n<END>"
+                f"Cutoff: {self.message_cutoff[groupname]}\n"
             )
-            self.request.sendall(message.encode())
+            self._send(message)
 
     leave = partialmethod(groupleave, "public")
 